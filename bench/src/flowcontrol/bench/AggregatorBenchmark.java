@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.bench;
+
+import flowcontrol.DispatcherReader;
+import flowcontrol.DispatcherReaderAggregator;
+import flowcontrol.dispatchers.DefaultDispatcher;
+import flowcontrol.queues.FIFOQueueBuffer;
+import flowcontrol.util.TimeResolution;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Round robin of DispatcherReaderAggregator over several dispatchers.
+ * <p>
+ * Each thread has its own aggregator and dispatchers, as they are meant for a
+ * single consumer.
+ *
+ * @author rpablos
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AggregatorBenchmark {
+    @Param({"4", "64"})
+    int readers;
+    DefaultDispatcher<Integer>[] dispatchers;
+    DispatcherReaderAggregator<Integer> aggregator;
+    int next;
+    final Integer element = 1;
+
+    @Setup
+    public void setup() {
+        dispatchers = new DefaultDispatcher[readers];
+        for (int i = 0; i < readers; i++)
+            dispatchers[i] = new DefaultDispatcher<>(1e9, new FIFOQueueBuffer<Integer>(1024), TimeResolution.NANOSECONDS);
+        aggregator = new DispatcherReaderAggregator<>((DispatcherReader<Integer>[]) dispatchers);
+    }
+
+    @Benchmark
+    public Integer get() {
+        dispatchers[next].put(element);
+        next = (next+1) % readers;
+        return aggregator.get();
+    }
+}
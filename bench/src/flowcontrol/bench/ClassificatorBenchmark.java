@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.bench;
+
+import flowcontrol.Classificator;
+import flowcontrol.DispatcherWriter;
+import flowcontrol.DispatcherWriterClassificator;
+import flowcontrol.RuleClassificator;
+import flowcontrol.dispatchers.DefaultDispatcher;
+import flowcontrol.queues.FIFOQueueBuffer;
+import flowcontrol.util.TimeResolution;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Classification of objects into three dispatchers, as in ClassificatorExample,
+ * with code and with rules.
+ *
+ * @author rpablos
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ClassificatorBenchmark {
+    DefaultDispatcher<Integer> gold, silver, bronze;
+    DispatcherWriterClassificator<Integer> classificator, rules;
+    final AtomicInteger next = new AtomicInteger();
+    final Integer[] elements = new Integer[1000];
+
+    @Setup
+    public void setup() {
+        gold = new DefaultDispatcher<>(1e9, new FIFOQueueBuffer<Integer>(1024), TimeResolution.NANOSECONDS);
+        silver = new DefaultDispatcher<>(1e9, new FIFOQueueBuffer<Integer>(1024), TimeResolution.NANOSECONDS);
+        bronze = new DefaultDispatcher<>(1e9, new FIFOQueueBuffer<Integer>(1024), TimeResolution.NANOSECONDS);
+        for (int i = 0; i < elements.length; i++)
+            elements[i] = i;
+        classificator = new DispatcherWriterClassificator<>(new Classificator<Integer>() {
+            @Override
+            public DispatcherWriter<Integer> getDispatcherWriter(Integer t) {
+                if (t < 500)
+                    return gold;
+                if (t < 750)
+                    return silver;
+                return bronze;
+            }
+        });
+        RuleClassificator<Integer> ruleClassificator = new RuleClassificator<Integer>(bronze);
+        int value = ruleClassificator.addField(new RuleClassificator.Field<Integer>() {
+            @Override
+            public Object extract(Integer t) {
+                return t;
+            }
+        });
+        ruleClassificator.addRule(new RuleClassificator.Rule<Integer>(gold).matches(value, RuleClassificator.range(0, 499)));
+        ruleClassificator.addRule(new RuleClassificator.Rule<Integer>(silver).matches(value, RuleClassificator.range(500, 749)));
+        rules = new DispatcherWriterClassificator<>(ruleClassificator);
+    }
+
+    @Benchmark
+    public boolean put() {
+        return put(classificator);
+    }
+
+    @Benchmark
+    public boolean putRules() {
+        return put(rules);
+    }
+
+    private boolean put(DispatcherWriterClassificator<Integer> classificator) {
+        Integer element = elements[(next.getAndIncrement() & 0x7fffffff) % elements.length];
+        boolean result = classificator.put(element);
+        // keep the queues from filling up
+        if (element < 500)
+            gold.get();
+        else if (element < 750)
+            silver.get();
+        else
+            bronze.get();
+        return result;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.bench;
+
+import flowcontrol.connector.Connector;
+import flowcontrol.connector.ConnectorManager;
+import flowcontrol.dispatchers.DefaultDispatcher;
+import flowcontrol.queues.FIFOQueueBuffer;
+import flowcontrol.util.TimeResolution;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** Objects moved from one dispatcher to another by the connector manager.
+ * <p>
+ * The consumer side polls the second dispatcher, and a poll may find it empty
+ * while the connector is still moving the object. The throughput of the whole
+ * pipeline is the {@code delivered} counter, which only counts the objects that
+ * came out of the second dispatcher; the primary score counts the polls. Each
+ * thread has its own pipeline, as dispatchers are meant for a single consumer.
+ *
+ * @author rpablos
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ConnectorManagerBenchmark {
+    DefaultDispatcher<Integer> source, destination;
+    ConnectorManager<Integer> manager;
+    Connector<Integer> connector;
+    final Integer element = 1;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long delivered;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            delivered = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        source = new DefaultDispatcher<>(1e9, new FIFOQueueBuffer<Integer>(1<<16), TimeResolution.NANOSECONDS);
+        destination = new DefaultDispatcher<>(1e9, new FIFOQueueBuffer<Integer>(1<<16), TimeResolution.NANOSECONDS);
+        manager = new ConnectorManager<>();
+        connector = manager.createConnector(source, destination);
+        connector.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        connector.stop();
+        manager.deleteConnector(connector);
+    }
+
+    @Benchmark
+    public Integer transfer(Counters counters) {
+        source.put(element);
+        Integer result = destination.get();
+        if (result != null)
+            counters.delivered++;
+        return result;
+    }
+}
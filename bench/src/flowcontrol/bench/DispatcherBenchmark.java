@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.bench;
+
+import flowcontrol.dispatchers.DefaultDispatcher;
+import flowcontrol.dispatchers.Dispatcher;
+import flowcontrol.dispatchers.GaussianDispatcher;
+import flowcontrol.dispatchers.QuotaDispatcher;
+import flowcontrol.queues.FIFOQueueBuffer;
+import flowcontrol.util.TimeResolution;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Put and get on the dispatchers.
+ * <p>
+ * The output rate is set far above what the hot path can reach, so the benchmark
+ * measures the cost of the pacing logic and not the configured rate. Each thread
+ * has its own dispatcher: the pacing state is meant for a single consumer, so a
+ * dispatcher shared by several benchmark threads would measure a race.
+ *
+ * @author rpablos
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DispatcherBenchmark {
+    static final double RATE = 1e9;
+    @Param({"default", "gaussian", "quota"})
+    String dispatcherType;
+    @Param({"1024"})
+    int capacity;
+    Dispatcher<Integer> dispatcher;
+    final Integer element = 1;
+
+    @Setup
+    public void setup() {
+        switch (dispatcherType) {
+            case "gaussian":
+                dispatcher = new GaussianDispatcher<>(0.5, RATE, new FIFOQueueBuffer<Integer>(capacity), TimeResolution.NANOSECONDS);
+                break;
+            case "quota":
+                dispatcher = new QuotaDispatcher<>(Integer.MAX_VALUE, new Date(), 1, TimeUnit.SECONDS, capacity);
+                break;
+            default:
+                dispatcher = new DefaultDispatcher<>(RATE, new FIFOQueueBuffer<Integer>(capacity), TimeResolution.NANOSECONDS);
+        }
+    }
+
+    @Benchmark
+    public boolean put() {
+        boolean result = dispatcher.put(element);
+        dispatcher.get();
+        return result;
+    }
+
+    @Benchmark
+    public Integer get() {
+        dispatcher.put(element);
+        return dispatcher.get();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Integer getBlocking() throws InterruptedException {
+        dispatcher.put(element);
+        return dispatcher.getBlocking(1);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.bench;
+
+import flowcontrol.queues.FIFOQueueBuffer;
+import flowcontrol.queues.MPMCQueueBuffer;
+import flowcontrol.queues.Queue;
+import flowcontrol.queues.RED;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Push and pop on the queues, locked as the dispatchers lock them: a
+ * ReentrantLock held for the push, as in put, and again for the pop, as in get.
+ * Concurrent queues are not locked.
+ *
+ * @author rpablos
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class QueueBenchmark {
+    @Param({"fifo", "red", "mpmc"})
+    String queueType;
+    @Param({"1024"})
+    int capacity;
+    Queue<Integer> queue;
+    boolean locked;
+    final ReentrantLock lock = new ReentrantLock();
+    final Integer element = 1;
+
+    @Setup
+    public void setup() {
+        switch (queueType) {
+            case "red":
+                queue = new RED<>(capacity, capacity/2, capacity*3/4, 0.1);
+                break;
+            case "mpmc":
+                queue = new MPMCQueueBuffer<>(capacity);
+                break;
+            default:
+                queue = new FIFOQueueBuffer<>(capacity);
+        }
+        locked = !(queueType.equals("mpmc"));
+    }
+
+    @Benchmark
+    public Integer pushPop() {
+        if (locked) {
+            lock.lock();
+            try {
+                queue.push(element);
+            } finally {
+                lock.unlock();
+            }
+            lock.lock();
+            try {
+                return queue.pop();
+            } finally {
+                lock.unlock();
+            }
+        }
+        queue.push(element);
+        return queue.pop();
+    }
+}
@@ -16,6 +16,8 @@
 
 package flowcontrol;
 
+import java.util.Collection;
+
 /**
  *
  * @author Ronald
@@ -26,4 +28,13 @@ public interface DispatcherReader<T> {
     public T getBlocking() throws InterruptedException;
     public T getBlocking(long timeout) throws InterruptedException;
     public double getOutputRate();
+    /** Moves to c as many objects as the output rate allows right now, up to max.
+     * <p>
+     * It does not block.
+     *
+     * @param c
+     * @param max
+     * @return the number of objects moved
+     */
+    public int drainTo(Collection<? super T> c, int max);
 }
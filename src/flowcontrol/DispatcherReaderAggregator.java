@@ -16,6 +16,9 @@
 
 package flowcontrol;
 
+import flowcontrol.metrics.DefaultMetrics;
+import flowcontrol.metrics.Metrics;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -55,12 +58,47 @@ public class DispatcherReaderAggregator<T> implements DispatcherReader<T>{
             T t = dispatchers[index].get();
             if (t != null) {
                 nextDispatcherIndex = getModuleIndex(index+1);
+                DefaultMetrics m = metrics;
+                if (m != null)
+                    m.dequeued(1);
                 return t;
             }
         }
         return null;
     }
 
+    /** Drains the member readers in round robin.
+     * <p>
+     * Every round each reader is asked for its share of the objects still
+     * pending, so a busy reader cannot take the whole batch.
+     *
+     * @param c
+     * @param max
+     * @return
+     */
+    @Override
+    public int drainTo(Collection<? super T> c, int max) {
+        int count = 0;
+        boolean progress = true;
+        while (count < max && progress) {
+            progress = false;
+            int share = Math.max(1, (max-count)/dispatchers.length);
+            for (int i = 0; i < dispatchers.length && count < max; i++) {
+                int index = getModuleIndex(nextDispatcherIndex+i);
+                int n = dispatchers[index].drainTo(c, Math.min(share, max-count));
+                if (n > 0) {
+                    count += n;
+                    progress = true;
+                }
+            }
+            nextDispatcherIndex = getModuleIndex(nextDispatcherIndex+1);
+        }
+        DefaultMetrics m = metrics;
+        if (m != null)
+            m.dequeued(count);
+        return count;
+    }
+
     @Override
     public T getBlocking() throws InterruptedException {
         T result;
@@ -87,6 +125,29 @@ public class DispatcherReaderAggregator<T> implements DispatcherReader<T>{
         return rate;
     }
     
+    volatile DefaultMetrics metrics = null;
+    /** Enables the metrics of this aggregator.
+     * <p>
+     * While disabled, they cost nothing in the put and get paths.
+     *
+     * @return
+     */
+    public synchronized Metrics enableMetrics() {
+        if (metrics == null)
+            metrics = new DefaultMetrics(null, rate);
+        return metrics;
+    }
+    public synchronized void disableMetrics() {
+        metrics = null;
+    }
+    /** Metrics of this aggregator, or null if they are disabled.
+     *
+     * @return
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
     private int getModuleIndex(int index){
         return (index) % dispatchers.length;
     }
@@ -16,8 +16,10 @@
 
 package flowcontrol;
 
-import flowcontrol.util.MovingAverage;
+import flowcontrol.stats.WindowedAverage;
+import flowcontrol.util.TimeResolution;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -26,23 +28,34 @@ import java.util.List;
  */
 public class DispatcherReaderClassificator<T> implements DispatcherReader<T>{
     DispatcherReader<T>[] dispatchers;
-    MovingAverage movingAverage;
-    double period; // inverse of output objects per ms
-    long lastPopTimeStamp = System.currentTimeMillis();
+    WindowedAverage movingAverage;
+    final TimeResolution resolution;
+    double period; // inverse of output objects per time unit of the resolution
+    long lastPopTimeStamp;
     
     public DispatcherReaderClassificator(double outputRate, DispatcherReader<T>[] dispatchers) {
         this(outputRate,Arrays.asList(dispatchers));
     }
 
     public DispatcherReaderClassificator(double outputRate,List<DispatcherReader<T>> dispatchers) {
+        this(outputRate,dispatchers,TimeResolution.MILLISECONDS);
+    }
+
+    public DispatcherReaderClassificator(double outputRate, DispatcherReader<T>[] dispatchers, TimeResolution resolution) {
+        this(outputRate,Arrays.asList(dispatchers),resolution);
+    }
+
+    public DispatcherReaderClassificator(double outputRate,List<DispatcherReader<T>> dispatchers, TimeResolution resolution) {
         Object[] array = dispatchers.toArray();
         if (array.length == 0)
             throw new IllegalArgumentException("Number of dispatchers must be greater than zero");
         this.dispatchers = new DispatcherReader[array.length];
         for (int i = 0; i < array.length; i++)
             this.dispatchers[i] = (DispatcherReader<T>) array[i];
-        period = 1000.0/outputRate;
-        movingAverage = new MovingAverage(5, (int) period);
+        this.resolution = resolution;
+        period = resolution.getUnitsPerSecond()/outputRate;
+        movingAverage = new WindowedAverage(5, (long) period);
+        lastPopTimeStamp = resolution.now();
     }
     
     private T getFromDispatcherReaders() {
@@ -57,24 +70,35 @@ public class DispatcherReaderClassificator<T> implements DispatcherReader<T>{
     @Override
     public T get() {
         long timeToWait = TimeToWait();
-        long currentTime = System.currentTimeMillis();
+        long currentTime = resolution.now();
         if ((currentTime-lastPopTimeStamp) < timeToWait) 
             return null;
         T result = getFromDispatcherReaders();
         if (result == null)
             return null;
-        currentTime = System.currentTimeMillis();
+        currentTime = resolution.now();
         movingAverage.pushValue(currentTime-lastPopTimeStamp);
         lastPopTimeStamp = currentTime;
         return result;
         
     }
 
+    @Override
+    public int drainTo(Collection<? super T> c, int max) {
+        int count = 0;
+        T t;
+        while (count < max && (t = get()) != null) {
+            c.add(t);
+            count++;
+        }
+        return count;
+    }
+
     @Override
     public T getBlocking() throws InterruptedException {
         T result;
         while ((result = get()) == null)
-            Thread.sleep((long) period);
+            resolution.sleep((long) period);
         return result;
     }
 
@@ -83,19 +107,20 @@ public class DispatcherReaderClassificator<T> implements DispatcherReader<T>{
         if (timeout == 0)
             return getBlocking();
         T result;
-        long initTime = System.currentTimeMillis();
-        long sleepTime = Math.min((long)period, timeout);
+        long initTime = resolution.now();
+        long timeoutUnits = resolution.fromMillis(timeout);
+        long sleepTime = Math.min((long)period, timeoutUnits);
         long currentTime;
-        while (((result = get()) == null) && ((currentTime=System.currentTimeMillis())-initTime)<timeout) {
-            Thread.sleep(sleepTime);
-            sleepTime = Math.min((long)period,timeout-(currentTime-initTime));
+        while (((result = get()) == null) && ((currentTime=resolution.now())-initTime)<timeoutUnits) {
+            resolution.sleep(sleepTime);
+            sleepTime = Math.min((long)period,timeoutUnits-(currentTime-initTime));
         }
         return result;
     }
 
     @Override
     public double getOutputRate() {
-        return 1000/period;
+        return resolution.getUnitsPerSecond()/period;
     }
     private long TimeToWait() {
         return (long) (period*2-movingAverage.getAverage());
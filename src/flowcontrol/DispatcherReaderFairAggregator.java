@@ -0,0 +1,188 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol;
+
+import flowcontrol.dispatchers.Dispatcher;
+import flowcontrol.events.DispatcherPutListener;
+import flowcontrol.metrics.DefaultMetrics;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/** Aggregator that shares the output among the readers with deficit round robin.
+ * <p>
+ * Every reader has a quantum and a weight. Each turn a reader earns quantum*weight
+ * of credit, and it is served while it has credit left, paying the cost of every
+ * object it releases. So, in the long run, the readers with backlog get a share
+ * of the cost proportional to their quantum*weight. Without a {@link Cost}
+ * every object costs 1.
+ * <p>
+ * Only readers that may have objects are visited: a reader that is a
+ * {@link Dispatcher} leaves the round when its queue gets empty and comes back
+ * with the next put, so the work per object does not grow with the number of
+ * idle readers.
+ *
+ * @author rpablos
+ */
+public class DispatcherReaderFairAggregator<T> extends DispatcherReaderAggregator<T> {
+    final Member[] members;
+    final Cost<T> cost;
+    final ArrayDeque<Member> round = new ArrayDeque<>(); // readers in the round, head is in its turn
+    final ConcurrentLinkedQueue<Member> reactivated = new ConcurrentLinkedQueue<>();
+
+    public DispatcherReaderFairAggregator(DispatcherReader<T>[] dispatchers, double[] weights) {
+        this(dispatchers, weights, 1, null);
+    }
+
+    /** Fair aggregator.
+     *
+     * @param dispatchers
+     * @param weights weight of every reader. If null, all weigh 1
+     * @param quantum credit per turn of every reader, in cost units. It should not be
+     * less than the cost of a big object, or readers will need several turns per object.
+     * @param cost cost of the objects. If null, every object costs 1
+     */
+    public DispatcherReaderFairAggregator(DispatcherReader<T>[] dispatchers, double[] weights, double quantum, Cost<T> cost) {
+        super(dispatchers);
+        if (weights != null && weights.length != dispatchers.length)
+            throw new IllegalArgumentException("There must be a weight for every dispatcher");
+        if (quantum <= 0)
+            throw new IllegalArgumentException("Quantum must be greater than zero");
+        this.cost = cost;
+        members = new DispatcherReaderFairAggregator.Member[dispatchers.length];
+        for (int i = 0; i < dispatchers.length; i++) {
+            members[i] = new Member(dispatchers[i], quantum, (weights == null)?1:weights[i]);
+            round.add(members[i]);
+        }
+    }
+
+    public DispatcherReaderFairAggregator(List<DispatcherReader<T>> dispatchers, double[] weights, double quantum, Cost<T> cost) {
+        this(dispatchers.toArray(new DispatcherReader[dispatchers.size()]), weights, quantum, cost);
+    }
+
+    public synchronized void setWeight(int index, double weight) {
+        if (weight <= 0)
+            throw new IllegalArgumentException("Weight must be greater than zero");
+        members[index].weight = weight;
+    }
+
+    public synchronized double getWeight(int index) {
+        return members[index].weight;
+    }
+
+    public synchronized void setQuantum(int index, double quantum) {
+        if (quantum <= 0)
+            throw new IllegalArgumentException("Quantum must be greater than zero");
+        members[index].quantum = quantum;
+    }
+
+    public synchronized double getQuantum(int index) {
+        return members[index].quantum;
+    }
+
+    @Override
+    public synchronized T get() {
+        Member member;
+        while ((member = reactivated.poll()) != null)
+            round.add(member);
+        int turns = round.size();
+        for (int i = 0; i < turns; ) {
+            member = round.peekFirst();
+            if (!member.inTurn) {
+                member.deficit += member.quantum*member.weight;
+                member.inTurn = true;
+                if (member.deficit <= 0) {
+                    // still paying an expensive object; it always ends, the deficit grows every turn
+                    endTurn(member, false);
+                    continue;
+                }
+            }
+            i++;
+            T t = member.reader.get();
+            if (t != null) {
+                member.deficit -= (cost == null)?1:cost.getCost(t);
+                if (member.deficit <= 0)
+                    endTurn(member, false);
+                DefaultMetrics m = metrics;
+                if (m != null)
+                    m.dequeued(1);
+                return t;
+            }
+            // no backlog: the credit is not kept
+            member.deficit = 0;
+            endTurn(member, member.isEmpty());
+        }
+        return null;
+    }
+
+    private void endTurn(Member member, boolean leave) {
+        round.pollFirst();
+        member.inTurn = false;
+        if (leave) {
+            member.active.set(false);
+            // a put between the get and the leaving would be lost
+            if (member.isEmpty() || !member.active.compareAndSet(false, true))
+                return;
+        }
+        round.addLast(member);
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> c, int max) {
+        int count = 0;
+        T t;
+        while (count < max && (t = get()) != null) {
+            c.add(t);
+            count++;
+        }
+        return count;
+    }
+
+    private class Member implements DispatcherPutListener<T> {
+        final DispatcherReader<T> reader;
+        final Dispatcher<T> dispatcher; // if the reader notifies puts
+        final AtomicBoolean active = new AtomicBoolean(true);
+        double quantum, weight;
+        double deficit = 0;
+        boolean inTurn = false;
+
+        Member(DispatcherReader<T> reader, double quantum, double weight) {
+            if (weight <= 0)
+                throw new IllegalArgumentException("Weight must be greater than zero");
+            this.reader = reader;
+            this.quantum = quantum;
+            this.weight = weight;
+            if (reader instanceof Dispatcher) {
+                dispatcher = (Dispatcher<T>) reader;
+                dispatcher.addDispatcherPutListener(this);
+            } else
+                dispatcher = null;
+        }
+
+        boolean isEmpty() {
+            return dispatcher != null && dispatcher.getQueue().getSize() == 0;
+        }
+
+        @Override
+        public void onPut(Dispatcher<T> d) {
+            if (active.compareAndSet(false, true))
+                reactivated.add(this);
+        }
+    }
+}
@@ -16,6 +16,8 @@
 
 package flowcontrol;
 
+import java.util.Collection;
+
 /**
  *
  * @author Ronald
@@ -23,4 +25,24 @@ package flowcontrol;
  */
 public interface DispatcherWriter<T> {
     public boolean put(T t);
+    /** Puts all the objects of c.
+     *
+     * @param c
+     * @return the number of objects accepted
+     */
+    public int putAll(Collection<? extends T> c);
+    /** Puts t, waiting while there is no room for it.
+     *
+     * @param t
+     * @throws InterruptedException
+     */
+    public void putBlocking(T t) throws InterruptedException;
+    /** Puts t, waiting while there is no room for it, up to timeout.
+     *
+     * @param t
+     * @param timeout in ms, 0 means forever
+     * @return false if timeout expired and t was not accepted
+     * @throws InterruptedException
+     */
+    public boolean putBlocking(T t, long timeout) throws InterruptedException;
 }
@@ -16,6 +16,8 @@
 
 package flowcontrol;
 
+import java.util.Collection;
+
 /**
  *
  * @author Ronald
@@ -31,5 +33,24 @@ public class DispatcherWriterClassificator<T> implements DispatcherWriter<T> {
     public boolean put(T t) {
         return classificator.getDispatcherWriter(t).put(t);
     }
+
+    @Override
+    public int putAll(Collection<? extends T> c) {
+        int count = 0;
+        for (T t: c)
+            if (put(t))
+                count++;
+        return count;
+    }
+
+    @Override
+    public void putBlocking(T t) throws InterruptedException {
+        classificator.getDispatcherWriter(t).putBlocking(t);
+    }
+
+    @Override
+    public boolean putBlocking(T t, long timeout) throws InterruptedException {
+        return classificator.getDispatcherWriter(t).putBlocking(t, timeout);
+    }
     
 }
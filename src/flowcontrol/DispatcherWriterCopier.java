@@ -17,9 +17,11 @@
 package flowcontrol;
 
 import flowcontrol.events.DispatcherLossListener;
+import java.util.Collection;
 import java.util.List;
 
-/**
+/** Writer that copies every object to several writers, serially in the caller
+ * thread. See {@link DispatcherWriterFanOut} for copying in parallel.
  *
  * @author Ronald
  */
@@ -33,8 +35,51 @@ public class DispatcherWriterCopier<T> implements DispatcherWriter<T>{
     public boolean put(T t) {
         boolean result = true;
         for (DispatcherWriter<T> dispatcher: dispatchers) {
-            result = result && dispatcher.put(t);
+            // every dispatcher gets its copy, even after one has rejected it
+            result &= dispatcher.put(t);
+        }
+        return result;
+    }
 
+    @Override
+    public int putAll(Collection<? extends T> c) {
+        int count = 0;
+        for (T t: c)
+            if (put(t))
+                count++;
+        return count;
+    }
+
+    /** Puts t into every dispatcher, one after the other, waiting in each one
+     * while it is full. So the copier goes at the pace of the slowest one.
+     *
+     * @param t
+     * @throws InterruptedException
+     */
+    @Override
+    public void putBlocking(T t) throws InterruptedException {
+        for (DispatcherWriter<T> dispatcher: dispatchers)
+            dispatcher.putBlocking(t);
+    }
+
+    /** Puts t into every dispatcher, with timeout for all of them.
+     *
+     * @param t
+     * @param timeout in ms, 0 means forever
+     * @return false if some dispatcher did not accept it in time
+     * @throws InterruptedException
+     */
+    @Override
+    public boolean putBlocking(T t, long timeout) throws InterruptedException {
+        if (timeout == 0) {
+            putBlocking(t);
+            return true;
+        }
+        long deadline = System.currentTimeMillis()+timeout;
+        boolean result = true;
+        for (DispatcherWriter<T> dispatcher: dispatchers) {
+            long remaining = Math.max(1, deadline-System.currentTimeMillis());
+            result &= dispatcher.putBlocking(t, remaining);
         }
         return result;
     }
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol;
+
+import flowcontrol.queues.MPSCQueueBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/** Writer that copies every object to several writers in parallel.
+ * <p>
+ * Every branch has its own bounded lock-free handoff and worker thread, which
+ * moves the objects into the branch writer with putBlocking. So a slow or full
+ * branch only fills its own handoff: it delays neither the other branches nor
+ * the producer. When a handoff is full the copy for that branch is dropped and
+ * counted for it.
+ * <p>
+ * Whether an object is accepted depends on how many handoffs took it, according
+ * to the {@link Acceptance} given.
+ *
+ * @author rpablos
+ */
+public class DispatcherWriterFanOut<T> implements DispatcherWriter<T> {
+
+    public static enum Acceptance {
+        /** Every branch took the object. */
+        ALL,
+        /** At least one branch took the object. */
+        ANY,
+        /** At least quorum branches took the object. */
+        QUORUM
+    }
+
+    final List<Branch> branches = new ArrayList<>();
+    final Acceptance acceptance;
+    final int required;
+    final ConcurrentLinkedQueue<Thread> producers = new ConcurrentLinkedQueue<>(); // blocked in putBlocking
+    volatile boolean closed = false;
+
+    public DispatcherWriterFanOut(List<DispatcherWriter<T>> writers, int handoffSize, Acceptance acceptance) {
+        this(writers, handoffSize, acceptance, (acceptance == Acceptance.ANY)?1:writers.size(), null);
+    }
+
+    /** Fan-out writer.
+     *
+     * @param writers branches
+     * @param handoffSize objects each branch can hold before dropping
+     * @param acceptance
+     * @param quorum branches needed for {@link Acceptance#QUORUM}
+     * @param threadFactory for the workers, null for daemon threads
+     */
+    public DispatcherWriterFanOut(List<DispatcherWriter<T>> writers, int handoffSize, Acceptance acceptance, 
+            int quorum, ThreadFactory threadFactory) {
+        if (writers.isEmpty())
+            throw new IllegalArgumentException("There must be at least one writer");
+        this.acceptance = acceptance;
+        switch (acceptance) {
+            case ALL: required = writers.size(); break;
+            case ANY: required = 1; break;
+            default:
+                if (quorum < 1 || quorum > writers.size())
+                    throw new IllegalArgumentException("Quorum must be between 1 and the number of writers");
+                required = quorum;
+        }
+        for (int i = 0; i < writers.size(); i++) {
+            Branch branch = new Branch(writers.get(i), handoffSize);
+            Thread thread = (threadFactory != null)?threadFactory.newThread(branch):new Thread(branch, "DispatcherWriterFanOut-"+i);
+            if (threadFactory == null)
+                thread.setDaemon(true);
+            branch.worker = thread;
+            branches.add(branch);
+        }
+        for (Branch branch: branches)
+            branch.worker.start();
+    }
+
+    @Override
+    public boolean put(T t) {
+        int accepted = 0;
+        for (Branch branch: branches)
+            if (branch.offer(t))
+                accepted++;
+            else
+                branch.dropped.incrementAndGet();
+        return accepted >= required;
+    }
+
+    @Override
+    public int putAll(Collection<? extends T> c) {
+        int count = 0;
+        for (T t: c)
+            if (put(t))
+                count++;
+        return count;
+    }
+
+    @Override
+    public void putBlocking(T t) throws InterruptedException {
+        putBlocking(t, 0);
+    }
+
+    /** Puts t, waiting for room in the handoffs only until enough branches
+     * have taken it for the acceptance. The branches still full then drop it.
+     *
+     * @param t
+     * @param timeout in ms, 0 means forever
+     * @return false if timeout expired before enough branches took it
+     * @throws InterruptedException
+     */
+    @Override
+    public boolean putBlocking(T t, long timeout) throws InterruptedException {
+        List<Branch> full = null;
+        int accepted = 0;
+        for (Branch branch: branches) {
+            if (branch.offer(t))
+                accepted++;
+            else {
+                if (full == null)
+                    full = new ArrayList<>();
+                full.add(branch);
+            }
+        }
+        if (accepted < required) {
+            Thread current = Thread.currentThread();
+            producers.add(current);
+            try {
+                long deadline = System.nanoTime()+timeout*1000000L;
+                // registered before retrying, so a pop in between is not missed
+                while (true) {
+                    for (int i = full.size()-1; i >= 0; i--)
+                        if (full.get(i).offer(t)) {
+                            full.remove(i);
+                            accepted++;
+                        }
+                    if (accepted >= required || closed)
+                        break;
+                    if (timeout == 0)
+                        LockSupport.park(this);
+                    else {
+                        long remaining = deadline-System.nanoTime();
+                        if (remaining <= 0)
+                            break;
+                        LockSupport.parkNanos(this, remaining);
+                    }
+                    if (Thread.interrupted())
+                        throw new InterruptedException();
+                }
+            } finally {
+                producers.remove(current);
+            }
+        }
+        if (full != null)
+            for (Branch branch: full)
+                branch.dropped.incrementAndGet();
+        return accepted >= required;
+    }
+
+    /** Stops the workers once they have moved what their handoffs hold.
+     *
+     */
+    public void close() {
+        closed = true;
+        for (Branch branch: branches)
+            LockSupport.unpark(branch.worker);
+        for (Thread producer: producers)
+            LockSupport.unpark(producer);
+    }
+
+    public Acceptance getAcceptance() {
+        return acceptance;
+    }
+
+    public int getBranchCount() {
+        return branches.size();
+    }
+
+    public List<DispatcherWriter<T>> getWriters() {
+        List<DispatcherWriter<T>> result = new ArrayList<>();
+        for (Branch branch: branches)
+            result.add(branch.writer);
+        return Collections.unmodifiableList(result);
+    }
+
+    /** Objects dropped for a branch, because its handoff was full or its
+     * writer failed to take them.
+     *
+     * @param branch index
+     * @return
+     */
+    public long getDropped(int branch) {
+        return branches.get(branch).dropped.get();
+    }
+
+    /** Objects moved into the writer of a branch.
+     *
+     * @param branch index
+     * @return
+     */
+    public long getDelivered(int branch) {
+        return branches.get(branch).delivered.get();
+    }
+
+    /** Objects waiting in the handoff of a branch.
+     *
+     * @param branch index
+     * @return
+     */
+    public int getPending(int branch) {
+        return branches.get(branch).handoff.getSize();
+    }
+
+    class Branch implements Runnable {
+        final DispatcherWriter<T> writer;
+        final MPSCQueueBuffer<T> handoff;
+        final AtomicLong dropped = new AtomicLong(), delivered = new AtomicLong();
+        Thread worker;
+        volatile boolean sleeping = false;
+
+        Branch(DispatcherWriter<T> writer, int handoffSize) {
+            this.writer = writer;
+            handoff = new MPSCQueueBuffer<>(handoffSize);
+        }
+
+        boolean offer(T t) {
+            // push publishes with a volatile write, so it is not reordered after
+            // the read of sleeping, and the worker cannot miss it (see ConcurrentQueue)
+            if (closed || !handoff.push(t))
+                return false;
+            if (sleeping)
+                LockSupport.unpark(worker);
+            return true;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                T t = handoff.pop();
+                if (t == null) {
+                    if (closed)
+                        return;
+                    sleeping = true;
+                    // checked again after announcing it, so a push in between is not missed
+                    if (handoff.peekHead() == null && !closed)
+                        LockSupport.park(this);
+                    sleeping = false;
+                    continue;
+                }
+                if (!producers.isEmpty())
+                    for (Thread producer: producers)
+                        LockSupport.unpark(producer);
+                try {
+                    writer.putBlocking(t);
+                    delivered.incrementAndGet();
+                } catch (InterruptedException ex) {
+                    dropped.incrementAndGet();
+                    if (closed)
+                        return;
+                } catch (RuntimeException ex) {
+                    // the branch keeps being served
+                    dropped.incrementAndGet();
+                    Thread current = Thread.currentThread();
+                    current.getUncaughtExceptionHandler().uncaughtException(current, ex);
+                }
+            }
+        }
+    }
+}
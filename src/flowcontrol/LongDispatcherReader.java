@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol;
+
+/** {@link DispatcherReader} of primitive longs.
+ * <p>
+ * Values are returned through an array, so no value is reserved for "nothing
+ * available" and nothing is boxed.
+ *
+ * @author rpablos
+ */
+public interface LongDispatcherReader {
+    /** Gets a value if its departure time has come. It does not block.
+     *
+     * @param dst
+     * @param offset where the value is stored
+     * @return true if a value was stored
+     */
+    public boolean get(long[] dst, int offset);
+    public long getBlocking() throws InterruptedException;
+    /** Waits for a value.
+     *
+     * @param dst
+     * @param offset where the value is stored
+     * @param timeout in ms, 0 means forever
+     * @return true if a value was stored, false if timeout expired
+     * @throws InterruptedException
+     */
+    public boolean getBlocking(long[] dst, int offset, long timeout) throws InterruptedException;
+    public double getOutputRate();
+    /** Moves to dst as many values as the output rate allows right now, up to max.
+     * <p>
+     * It does not block.
+     *
+     * @param dst
+     * @param offset
+     * @param max
+     * @return the number of values moved
+     */
+    public int drainTo(long[] dst, int offset, int max);
+}
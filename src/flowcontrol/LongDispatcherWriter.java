@@ -0,0 +1,33 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol;
+
+/** {@link DispatcherWriter} of primitive longs.
+ *
+ * @author rpablos
+ */
+public interface LongDispatcherWriter {
+    public boolean put(long value);
+    /** Puts values[offset..offset+length).
+     *
+     * @param values
+     * @param offset
+     * @param length
+     * @return the number of values accepted
+     */
+    public int putAll(long[] values, int offset, int length);
+}
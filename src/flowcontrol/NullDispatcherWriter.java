@@ -16,6 +16,8 @@
 
 package flowcontrol;
 
+import java.util.Collection;
+
 /**
  *
  * @author Ronald
@@ -27,5 +29,22 @@ public class NullDispatcherWriter<T> implements DispatcherWriter<T> {
         //do nothing
         return true;
     }
+
+    @Override
+    public int putAll(Collection<? extends T> c) {
+        //do nothing
+        return c.size();
+    }
+
+    @Override
+    public void putBlocking(T t) {
+        //do nothing
+    }
+
+    @Override
+    public boolean putBlocking(T t, long timeout) {
+        //do nothing
+        return true;
+    }
     
 }
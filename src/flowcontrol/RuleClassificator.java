@@ -0,0 +1,356 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Classificator built from rules instead of code.
+ * <p>
+ * Fields extract values from the objects, and rules match those values: a rule
+ * can require a field to be one of some values, or to satisfy a {@link Match}.
+ * The first rule, in order of addition, matching an object gives its writer;
+ * when none matches, the default writer is used.
+ * <p>
+ * Rules are compiled into a decision tree with a hash lookup for every field
+ * with required values, so only the matches are evaluated one by one. Besides,
+ * the values extracted from an object are the key of a bounded direct mapped
+ * cache of writers, so classifying an object already seen is a hash probe.
+ * Values are compared with equals, so an Integer never equals a Long, and
+ * matches must depend only on the value.
+ *
+ * @author rpablos
+ */
+public class RuleClassificator<T> implements Classificator<T> {
+
+    /** Extracts a value from an object. */
+    public interface Field<T> {
+        Object extract(T t);
+    }
+
+    /** Condition over the value of a field. */
+    public interface Match {
+        boolean matches(Object value);
+    }
+
+    /** Rule giving a writer to the objects satisfying all its conditions.
+     *
+     */
+    public static class Rule<T> {
+        final DispatcherWriter<T> writer;
+        final Map<Integer, Set<Object>> values = new HashMap<>();
+        final Map<Integer, List<Match>> matches = new HashMap<>();
+
+        public Rule(DispatcherWriter<T> writer) {
+            if (writer == null)
+                throw new IllegalArgumentException("Writer cannot be null");
+            this.writer = writer;
+        }
+
+        /** Field must be one of values.
+         *
+         * @param field index given by addField
+         * @param values
+         * @return this rule
+         */
+        public Rule<T> is(int field, Object... values) {
+            if (values.length == 0)
+                throw new IllegalArgumentException("There must be at least one value");
+            Set<Object> set = new HashSet<>(Arrays.asList(values));
+            Set<Object> previous = this.values.get(field);
+            if (previous != null)
+                set.retainAll(previous);
+            this.values.put(field, set);
+            return this;
+        }
+
+        /** Field must satisfy match.
+         *
+         * @param field index given by addField
+         * @param match
+         * @return this rule
+         */
+        public Rule<T> matches(int field, Match match) {
+            List<Match> list = matches.get(field);
+            if (list == null)
+                matches.put(field, list = new ArrayList<>());
+            list.add(match);
+            return this;
+        }
+
+        boolean matches(Object[] key, int[] slots) {
+            for (Map.Entry<Integer, List<Match>> entry: matches.entrySet()) {
+                Object value = key[slots[entry.getKey()]];
+                for (Match match: entry.getValue())
+                    if (!match.matches(value))
+                        return false;
+            }
+            return true;
+        }
+    }
+
+    /** Match for numbers between min and max, both included.
+     *
+     * @param min
+     * @param max
+     * @return
+     */
+    public static Match range(final double min, final double max) {
+        return new Match() {
+            @Override
+            public boolean matches(Object value) {
+                if (!(value instanceof Number))
+                    return false;
+                double d = ((Number) value).doubleValue();
+                return d >= min && d <= max;
+            }
+        };
+    }
+
+    final List<Field<T>> fields = new ArrayList<>();
+    final List<Rule<T>> rules = new ArrayList<>();
+    final DispatcherWriter<T> defaultWriter;
+    final int cacheSize;
+    volatile Compiled<T> compiled;
+
+    public RuleClassificator(DispatcherWriter<T> defaultWriter) {
+        this(defaultWriter, 4096);
+    }
+
+    /** Rule classificator.
+     *
+     * @param defaultWriter for objects matching no rule
+     * @param cacheSize number of keys cached, rounded up to a power of 2. 0 disables the cache
+     */
+    public RuleClassificator(DispatcherWriter<T> defaultWriter, int cacheSize) {
+        if (defaultWriter == null)
+            throw new IllegalArgumentException("Default writer cannot be null");
+        if (cacheSize < 0)
+            throw new IllegalArgumentException("Cache size cannot be negative");
+        this.defaultWriter = defaultWriter;
+        int size = (cacheSize == 0)?0:1;
+        while (size < cacheSize)
+            size <<= 1;
+        this.cacheSize = size;
+        compiled = new Compiled<>(this);
+    }
+
+    /** Adds a field.
+     *
+     * @param field
+     * @return index of the field for the rules
+     */
+    public synchronized int addField(Field<T> field) {
+        fields.add(field);
+        return fields.size()-1;
+    }
+
+    /** Adds a rule, after the ones already added, and compiles the rules again.
+     * The rule must not be changed afterwards.
+     *
+     * @param rule
+     */
+    public synchronized void addRule(Rule<T> rule) {
+        for (Integer field: rule.values.keySet())
+            checkField(field);
+        for (Integer field: rule.matches.keySet())
+            checkField(field);
+        rules.add(rule);
+        compiled = new Compiled<>(this);
+    }
+
+    /** Removes all the rules.
+     *
+     */
+    public synchronized void clearRules() {
+        rules.clear();
+        compiled = new Compiled<>(this);
+    }
+
+    private void checkField(int field) {
+        if (field < 0 || field >= fields.size())
+            throw new IllegalArgumentException("Unknown field "+field);
+    }
+
+    public DispatcherWriter<T> getDefaultWriter() {
+        return defaultWriter;
+    }
+
+    @Override
+    public DispatcherWriter<T> getDispatcherWriter(T t) {
+        return compiled.lookup(t);
+    }
+
+    static final Object NULL = new Object();
+
+    static final class Key {
+        final Object[] values;
+        final int hash;
+
+        Key(Object[] values) {
+            this.values = values;
+            hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && ((Key) obj).hash == hash && Arrays.equals(((Key) obj).values, values);
+        }
+    }
+
+    static final class Entry<T> {
+        final Object key;
+        final DispatcherWriter<T> writer;
+
+        Entry(Object key, DispatcherWriter<T> writer) {
+            this.key = key;
+            this.writer = writer;
+        }
+    }
+
+    static final class Node<T> {
+        int slot = -1; // value tested, -1 for leaves
+        Map<Object, Node<T>> children;
+        Node<T> otherwise;
+        Rule<T>[] rules; // leaves, in priority order
+    }
+
+    /** Immutable snapshot of the rules.
+     *
+     */
+    static final class Compiled<T> {
+        final List<Field<T>> fields; // extracted for the key
+        final int[] slots; // position in the key of every field, -1 if unused
+        final Node<T> root;
+        final DispatcherWriter<T> defaultWriter;
+        final Entry<T>[] cache;
+        final int mask;
+
+        @SuppressWarnings("unchecked")
+        Compiled(RuleClassificator<T> classificator) {
+            defaultWriter = classificator.defaultWriter;
+            slots = new int[classificator.fields.size()];
+            Arrays.fill(slots, -1);
+            fields = new ArrayList<>();
+            Set<Integer> tested = new LinkedHashSet<>();
+            for (Rule<T> rule: classificator.rules) {
+                for (Integer field: rule.values.keySet()) {
+                    tested.add(field);
+                    use(classificator, field);
+                }
+                for (Integer field: rule.matches.keySet())
+                    use(classificator, field);
+            }
+            root = build(new ArrayList<>(classificator.rules), new ArrayList<>(tested));
+            cache = (classificator.cacheSize == 0 || fields.isEmpty())?null:new Entry[classificator.cacheSize];
+            mask = classificator.cacheSize-1;
+        }
+
+        private void use(RuleClassificator<T> classificator, int field) {
+            if (slots[field] < 0) {
+                slots[field] = fields.size();
+                fields.add(classificator.fields.get(field));
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private Node<T> build(List<Rule<T>> candidates, List<Integer> pending) {
+            Node<T> node = new Node<>();
+            // first field with required values among the candidates
+            int field = -1;
+            for (int i = 0; i < pending.size() && field < 0; i++)
+                for (Rule<T> rule: candidates)
+                    if (rule.values.containsKey(pending.get(i))) {
+                        field = pending.get(i);
+                        break;
+                    }
+            if (field < 0) {
+                node.rules = candidates.toArray(new Rule[candidates.size()]);
+                return node;
+            }
+            List<Integer> rest = new ArrayList<>(pending);
+            rest.remove((Integer) field);
+            node.slot = slots[field];
+            node.children = new HashMap<>();
+            List<Rule<T>> any = new ArrayList<>();
+            Set<Object> values = new LinkedHashSet<>();
+            for (Rule<T> rule: candidates) {
+                Set<Object> required = rule.values.get(field);
+                if (required == null)
+                    any.add(rule);
+                else
+                    values.addAll(required);
+            }
+            for (Object value: values) {
+                List<Rule<T>> matching = new ArrayList<>();
+                for (Rule<T> rule: candidates) {
+                    Set<Object> required = rule.values.get(field);
+                    if (required == null || required.contains(value))
+                        matching.add(rule);
+                }
+                node.children.put((value == null)?NULL:value, build(matching, rest));
+            }
+            node.otherwise = build(any, rest);
+            return node;
+        }
+
+        DispatcherWriter<T> lookup(T t) {
+            int n = fields.size();
+            if (n == 0)
+                return evaluate(root, null);
+            Object[] values = new Object[n];
+            for (int i = 0; i < n; i++)
+                values[i] = fields.get(i).extract(t);
+            if (cache == null)
+                return evaluate(root, values);
+            // a single field is its own key
+            Object key = (n == 1)?((values[0] == null)?NULL:values[0]):new Key(values);
+            int h = key.hashCode();
+            int index = (h ^ (h >>> 16)) & mask;
+            Entry<T> entry = cache[index];
+            if (entry != null && entry.key.equals(key))
+                return entry.writer;
+            DispatcherWriter<T> writer = evaluate(root, values);
+            // racy but safe: entries are immutable
+            cache[index] = new Entry<>(key, writer);
+            return writer;
+        }
+
+        private DispatcherWriter<T> evaluate(Node<T> node, Object[] values) {
+            while (node.slot >= 0) {
+                Object value = values[node.slot];
+                Node<T> child = node.children.get((value == null)?NULL:value);
+                node = (child != null)?child:node.otherwise;
+            }
+            for (Rule<T> rule: node.rules)
+                if (rule.matches(values, slots))
+                    return rule.writer;
+            return defaultWriter;
+        }
+    }
+}
@@ -18,10 +18,14 @@ package flowcontrol.connector;
 
 import flowcontrol.DispatcherReader;
 import flowcontrol.DispatcherWriter;
+import flowcontrol.metrics.DefaultMetrics;
+import flowcontrol.metrics.Metrics;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  *
@@ -29,28 +33,51 @@ import java.util.List;
  * @param <T>
  */
 public class ConnectorManager<T> {
+    static final int BATCH_SIZE = 64;
     final List<Connector<T>> connectors = new ArrayList<>();
+    // a lock rather than the monitor, so that a virtual worker does not pin its carrier
+    final ReentrantLock lock = new ReentrantLock();
+    final ThreadFactory threadFactory;
     long minPeriod = 1000;
     Thread connectorManagerThread = null;
     ConnectorManagerTask connectorManagerRunnable = null;
 
+    public ConnectorManager() {
+        this(null);
+    }
+
+    /** Connector manager whose worker thread is created by threadFactory.
+     * <p>
+     * It can be a factory of virtual threads, see {@link flowcontrol.util.VirtualThreads}.
+     *
+     * @param threadFactory null for a plain thread
+     */
+    public ConnectorManager(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+    
     
     public Connector<T> createConnector(DispatcherReader<T> dr, DispatcherWriter<T> dw) {
         Connector_impl result = new Connector_impl(dr, dw);
-        synchronized(connectors){
+        lock.lock();
+        try {
             connectors.add(result);
+        } finally {
+            lock.unlock();
         }
         minPeriod = findMinPeriod();
         return result;
     }
     public void deleteConnector(Connector<T> connector){
-        synchronized(connectors){
+        lock.lock();
+        try {
             connectors.remove(connector);
             if (connectors.isEmpty() && connectorManagerThread.isAlive()){ 
                 connectorManagerThread = null;
                 connectorManagerRunnable.terminate();
             }
-            
+        } finally {
+            lock.unlock();
         }
         minPeriod = findMinPeriod();
         
@@ -59,8 +86,43 @@ public class ConnectorManager<T> {
         return Collections.unmodifiableList(connectors);
     }
 
+    volatile DefaultMetrics metrics = null;
+    /** Enables the metrics of this connector manager.
+     * <p>
+     * Objects moved by the connectors are counted as dequeued, and the objects
+     * that the writers do not accept as dropped.
+     *
+     * @return
+     */
+    public synchronized Metrics enableMetrics() {
+        if (metrics == null)
+            metrics = new DefaultMetrics(null, 0);
+        return metrics;
+    }
+    public synchronized void disableMetrics() {
+        metrics = null;
+    }
+    /** Metrics of this connector manager, or null if they are disabled.
+     *
+     * @return
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+    
+    void moved(int n, int accepted) {
+        DefaultMetrics m = metrics;
+        if (m != null) {
+            m.dequeued(n);
+            m.offered(n);
+            m.accepted(accepted);
+            m.dropped(n-accepted);
+        }
+    }
+
     private long findMinPeriod() {
-        synchronized (connectors) {
+        lock.lock();
+        try {
             if (connectors.isEmpty())
                 return 1000; // 1seg
             Iterator<Connector<T>> iterator = connectors.iterator();
@@ -71,6 +133,8 @@ public class ConnectorManager<T> {
                      result = period;
             }
             return (long) result;
+        } finally {
+            lock.unlock();
         }
     }
     private class Connector_impl implements Connector<T>{
@@ -95,12 +159,15 @@ public class ConnectorManager<T> {
         @Override
         public void start() {
             stopped = false;
-            synchronized (connectors) {
+            lock.lock();
+            try {
                 if (connectorManagerThread == null || !connectorManagerThread.isAlive()){
                     connectorManagerRunnable = new ConnectorManagerTask();
-                    connectorManagerThread = new Thread(connectorManagerRunnable);
+                    connectorManagerThread = (threadFactory != null)?threadFactory.newThread(connectorManagerRunnable):new Thread(connectorManagerRunnable);
                     connectorManagerThread.start();
                 }
+            } finally {
+                lock.unlock();
             }
         }
 
@@ -115,19 +182,24 @@ public class ConnectorManager<T> {
     }
     private class ConnectorManagerTask implements Runnable {
         volatile boolean fin = false;
-        T t;
+        final List<T> batch = new ArrayList<>();
         @Override
         public void run() {
             try {
                 while (!fin) {
-                    synchronized (connectors){
+                    lock.lock();
+                    try {
                         for (Connector<T> connector: connectors) {
                             if (!connector.isStopped()) {
-                                while ((t = connector.getDispatcherReader().get()) != null){
-                                    connector.getDispatcherWriter().put(t);
+                                int n;
+                                while ((n = connector.getDispatcherReader().drainTo(batch, BATCH_SIZE)) > 0){
+                                    moved(n, connector.getDispatcherWriter().putAll(batch));
+                                    batch.clear();
                                 }
                             }
                         }
+                    } finally {
+                        lock.unlock();
                     }
                     Thread.sleep(minPeriod);
                 }
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.connector;
+
+import flowcontrol.DispatcherReader;
+import flowcontrol.DispatcherWriter;
+import flowcontrol.dispatchers.Dispatcher;
+import flowcontrol.events.DispatcherPutListener;
+import flowcontrol.metrics.DefaultMetrics;
+import flowcontrol.metrics.Metrics;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Connector manager that runs every connector on its own schedule.
+ * <p>
+ * Unlike {@link ConnectorManager}, which drains all the connectors from a single
+ * thread at the pace of the fastest one, each connector here is a task of a pool
+ * scheduled at the next time its reader can release objects. A slow writer only
+ * delays its own connector.
+ * <p>
+ * If the reader of a connector is a {@link Dispatcher}, an empty connector goes
+ * idle and is woken up by the puts in the dispatcher instead of polling it.
+ * Other readers are polled at their output rate.
+ *
+ * @author rpablos
+ */
+public class ScheduledConnectorManager<T> {
+    static final int BATCH_SIZE = 64;
+    static final int IDLE = 0, SCHEDULED = 1, STOPPED = 2;
+    final List<Connector<T>> connectors = new CopyOnWriteArrayList<>();
+    final ScheduledExecutorService executor;
+
+    public ScheduledConnectorManager() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ScheduledConnectorManager(int threads) {
+        this(threads, Executors.defaultThreadFactory());
+    }
+
+    /** Connector manager with a pool of threads made by threadFactory.
+     * <p>
+     * A factory of virtual threads can be used on runtimes that support them.
+     *
+     * @param threads
+     * @param threadFactory
+     */
+    public ScheduledConnectorManager(int threads, ThreadFactory threadFactory) {
+        this(Executors.newScheduledThreadPool(threads, threadFactory));
+    }
+
+    public ScheduledConnectorManager(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public Connector<T> createConnector(DispatcherReader<T> dr, DispatcherWriter<T> dw) {
+        ScheduledConnector result = new ScheduledConnector(dr, dw);
+        connectors.add(result);
+        return result;
+    }
+
+    public void deleteConnector(Connector<T> connector){
+        if (connectors.remove(connector)) {
+            connector.stop();
+            ((ScheduledConnector) connector).dispose();
+        }
+    }
+
+    public List<Connector<T>> getConnectors(){
+        return Collections.unmodifiableList(connectors);
+    }
+
+    /** Stops all the connectors and the pool of threads.
+     *
+     */
+    public void shutdown() {
+        for (Connector<T> connector: connectors)
+            deleteConnector(connector);
+        executor.shutdown();
+    }
+
+    volatile DefaultMetrics metrics = null;
+    /** Enables the metrics of this connector manager.
+     * <p>
+     * Objects moved by the connectors are counted as dequeued, and the objects
+     * that the writers do not accept as dropped.
+     *
+     * @return
+     */
+    public synchronized Metrics enableMetrics() {
+        if (metrics == null)
+            metrics = new DefaultMetrics(null, 0);
+        return metrics;
+    }
+    public synchronized void disableMetrics() {
+        metrics = null;
+    }
+    /** Metrics of this connector manager, or null if they are disabled.
+     *
+     * @return
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+    
+    void moved(int n, int accepted) {
+        DefaultMetrics m = metrics;
+        if (m != null) {
+            m.dequeued(n);
+            m.offered(n);
+            m.accepted(accepted);
+            m.dropped(n-accepted);
+        }
+    }
+
+    private class ScheduledConnector implements Connector<T>, DispatcherPutListener<T> {
+        final DispatcherReader<T> dr;
+        final DispatcherWriter<T> dw;
+        final Dispatcher<T> notifier; // reader that notifies puts, if any
+        final AtomicInteger state = new AtomicInteger(STOPPED);
+        volatile Step step;
+
+        public ScheduledConnector(DispatcherReader<T> dr, DispatcherWriter<T> dw) {
+            this.dr = dr;
+            this.dw = dw;
+            if (dr instanceof Dispatcher) {
+                notifier = (Dispatcher<T>) dr;
+                notifier.addDispatcherPutListener(this);
+            } else
+                notifier = null;
+        }
+
+        @Override
+        public DispatcherReader<T> getDispatcherReader() {
+            return dr;
+        }
+
+        @Override
+        public DispatcherWriter<T> getDispatcherWriter() {
+            return dw;
+        }
+
+        @Override
+        public void start() {
+            if (state.compareAndSet(STOPPED, SCHEDULED))
+                executor.execute(step = new Step());
+        }
+
+        @Override
+        public void stop() {
+            state.set(STOPPED);
+        }
+
+        @Override
+        public boolean isStopped() {
+            return state.get() == STOPPED;
+        }
+
+        void dispose() {
+            if (notifier != null)
+                notifier.removeDispatcherPutListener(this);
+        }
+
+        @Override
+        public void onPut(Dispatcher<T> dispatcher) {
+            if (state.compareAndSet(IDLE, SCHEDULED))
+                executor.execute(step);
+        }
+
+        private boolean isEmpty() {
+            return notifier.getQueue().getSize() == 0;
+        }
+
+        /** Drains the connector and schedules the next step.
+         * <p>
+         * A stop and start makes a new chain of steps; the steps of an old chain
+         * still scheduled are ignored.
+         */
+        private class Step implements Runnable {
+            final List<T> batch = new ArrayList<>();
+
+            @Override
+            public void run() {
+                if (step != this || state.get() != SCHEDULED)
+                    return;
+                try {
+                    drain();
+                } catch (RuntimeException ex) {
+                    // reported without losing the connector, which is retried in a period
+                    Thread current = Thread.currentThread();
+                    current.getUncaughtExceptionHandler().uncaughtException(current, ex);
+                }
+                if (step != this || state.get() != SCHEDULED)
+                    return;
+                if (notifier != null && isEmpty()) {
+                    // go idle; recheck for a put between the drain and the state change
+                    if (state.compareAndSet(SCHEDULED, IDLE) && !isEmpty())
+                        onPut(notifier);
+                    return;
+                }
+                executor.schedule(this, periodNanos(), TimeUnit.NANOSECONDS);
+            }
+
+            /** Period of the reader, read on every step because its rate can change.
+             *
+             */
+            private long periodNanos() {
+                double rate = dr.getOutputRate();
+                return (rate > 0)?Math.max(1L, (long) (1000000000.0/rate)):1000000000L;
+            }
+
+            private void drain() {
+                int n;
+                try {
+                    while ((n = dr.drainTo(batch, BATCH_SIZE)) > 0) {
+                        int accepted;
+                        try {
+                            accepted = dw.putAll(batch);
+                        } catch (RuntimeException ex) {
+                            moved(n, 0);
+                            throw ex;
+                        }
+                        moved(n, accepted);
+                        batch.clear();
+                        if (n < BATCH_SIZE || step != this || state.get() != SCHEDULED)
+                            break;
+                    }
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.dispatchers;
+
+/** Additive increase, multiplicative decrease.
+ * <p>
+ * Every success adds increase/rate, so the rate grows by increase objects/s every
+ * second while everything goes well. A failure, or a latency above the threshold,
+ * multiplies the rate by the decrease factor, at most once per cooldown, so a
+ * burst of failures caused by the same overload cuts the rate only once.
+ *
+ * @author rpablos
+ */
+public class AIMDRateController implements RateController {
+    final double increase, decreaseFactor, latencyThreshold;
+    final long cooldown; // ns
+    long lastDecrease;
+
+    public AIMDRateController(double increase, double decreaseFactor) {
+        this(increase, decreaseFactor, Double.POSITIVE_INFINITY, 100);
+    }
+
+    /** AIMD controller.
+     *
+     * @param increase objects/s added every second of successes
+     * @param decreaseFactor in (0,1)
+     * @param latencyThreshold latency in ms considered a failure
+     * @param cooldown minimum time between decreases in ms
+     */
+    public AIMDRateController(double increase, double decreaseFactor, double latencyThreshold, long cooldown) {
+        if (increase <= 0)
+            throw new IllegalArgumentException("Increase must be greater than zero");
+        if (decreaseFactor <= 0 || decreaseFactor >= 1)
+            throw new IllegalArgumentException("Decrease factor must be in (0,1)");
+        this.increase = increase;
+        this.decreaseFactor = decreaseFactor;
+        this.latencyThreshold = latencyThreshold;
+        this.cooldown = cooldown*1000000;
+        lastDecrease = System.nanoTime()-this.cooldown;
+    }
+
+    @Override
+    public double onSuccess(double rate, double latency) {
+        if (latency > latencyThreshold)
+            return onFailure(rate);
+        return rate+increase/rate;
+    }
+
+    @Override
+    public double onFailure(double rate) {
+        long now = System.nanoTime();
+        if (now-lastDecrease < cooldown)
+            return rate;
+        lastDecrease = now;
+        return rate*decreaseFactor;
+    }
+}
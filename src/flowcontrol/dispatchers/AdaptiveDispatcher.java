@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.dispatchers;
+
+import flowcontrol.queues.FIFOQueueBuffer;
+import flowcontrol.queues.Queue;
+import flowcontrol.util.TimeResolution;
+
+/** Dispatcher whose output rate follows the feedback of the consumer.
+ * <p>
+ * The consumer reports the outcome of the objects it processes with
+ * {@link #onSuccess(double)} and {@link #onFailure()}, from any thread, and a
+ * {@link RateController} computes the new rate, which is kept between minRate
+ * and maxRate. The pacing is the one of {@link DefaultDispatcher}.
+ *
+ * @author rpablos
+ */
+public class AdaptiveDispatcher<T> extends DefaultDispatcher<T> {
+    final RateController controller;
+    final double minRate, maxRate;
+
+    public AdaptiveDispatcher(double initialRate, double minRate, double maxRate, RateController controller, int bufferLength) {
+        this(initialRate, minRate, maxRate, controller, new FIFOQueueBuffer<T>(bufferLength), TimeResolution.MILLISECONDS);
+    }
+
+    /** Adaptive dispatcher.
+     *
+     * @param initialRate objects per second
+     * @param minRate
+     * @param maxRate
+     * @param controller
+     * @param queue
+     * @param resolution
+     */
+    public AdaptiveDispatcher(double initialRate, double minRate, double maxRate, RateController controller, Queue<T> queue, TimeResolution resolution) {
+        super(initialRate, queue, resolution);
+        if (!(minRate > 0) || minRate > maxRate || initialRate < minRate || initialRate > maxRate)
+            throw new IllegalArgumentException("Rates must be 0 < minRate <= initialRate <= maxRate");
+        this.controller = controller;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+    }
+
+    /** An object was processed successfully.
+     *
+     * @param latency in ms, NaN if it was not measured
+     */
+    public void onSuccess(double latency) {
+        synchronized (controller) {
+            adjust(controller.onSuccess(getOutputRate(), latency));
+        }
+    }
+
+    public void onSuccess() {
+        onSuccess(Double.NaN);
+    }
+
+    /** An object failed or was rejected downstream.
+     *
+     */
+    public void onFailure() {
+        synchronized (controller) {
+            adjust(controller.onFailure(getOutputRate()));
+        }
+    }
+
+    private void adjust(double rate) {
+        rate = Math.min(maxRate, Math.max(minRate, rate));
+        if (rate != getOutputRate())
+            setOutputRate(rate);
+    }
+
+    public double getMinRate() {
+        return minRate;
+    }
+
+    public double getMaxRate() {
+        return maxRate;
+    }
+
+    public RateController getRateController() {
+        return controller;
+    }
+}
@@ -17,22 +17,53 @@
 package flowcontrol.dispatchers;
 
 import flowcontrol.events.DispatcherLossListener;
+import flowcontrol.events.DispatcherPutListener;
+import flowcontrol.metrics.DefaultMetrics;
+import flowcontrol.metrics.Metrics;
+import flowcontrol.queues.CoDel;
+import flowcontrol.queues.ConcurrentQueue;
 import flowcontrol.queues.FIFOQueueBuffer;
 import flowcontrol.queues.Queue;
-import flowcontrol.util.MovingAverage;
-import java.util.LinkedHashSet;
+import flowcontrol.queues.QueueDropListener;
+import flowcontrol.stats.WindowedAverage;
+import flowcontrol.util.TimeResolution;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * Dispatcher that releases objects at a constant output rate.
+ * <p>
+ * Any number of threads may put objects, but the pacing state (the time of the
+ * last release and its moving average) is updated by the get methods without a
+ * lock, so they are meant for one consumer thread at a time. Several consumers
+ * must serialize their calls, or read through a single thread.
  *
  * @author Ronald
  * @param <T>
  */
 public class DefaultDispatcher<T> implements Dispatcher<T> {
     final Queue<T> buffer;
-    MovingAverage movingAverage;
-    double period; // inverse of output objects per ms
-    long lastPopTimeStamp = System.currentTimeMillis();
+    WindowedAverage movingAverage;
+    final TimeResolution resolution;
+    volatile double period; // inverse of output objects per time unit of the resolution
+    double averagedPeriod; // period the moving average is compensating, owned by the consumer
+    long lastPopTimeStamp;
+    // lock-free mode: the queue is a ConcurrentQueue and consumers park instead of waiting on a condition
+    final boolean lockFree;
+    final ConcurrentLinkedQueue<Thread> waiters;
+    // producers blocked because the queue is full
+    final ConcurrentLinkedQueue<Thread> producers;
+    // locked mode: a lock and conditions rather than the monitor, so that waiting
+    // threads do not pin the carrier thread when they are virtual threads
+    final ReentrantLock lock;
+    final Condition notEmpty, notFull;
     public DefaultDispatcher(double outputRate) {
         this(outputRate,8);
     }
@@ -42,45 +73,332 @@ public class DefaultDispatcher<T> implements Dispatcher<T> {
     }
     
     public DefaultDispatcher(double outputRate, Queue queue) {
+        this(outputRate,queue,TimeResolution.MILLISECONDS);
+    }
+
+    /** Dispatcher with the time base given by resolution.
+     * <p>
+     * Use {@link TimeResolution#NANOSECONDS} for output rates beyond 1000 objects/s.
+     * If queue is a {@link ConcurrentQueue} the dispatcher works in lock-free
+     * mode: no lock is taken on the put path.
+     *
+     * @param outputRate objects per second
+     * @param queue
+     * @param resolution
+     */
+    public DefaultDispatcher(double outputRate, Queue queue, TimeResolution resolution) {
         buffer = queue;
-        period = 1000.0/outputRate;
-        movingAverage = new MovingAverage((int) Math.max(8,(int)(quantum*2)),(long) period);
+        this.resolution = resolution;
+        period = resolution.getUnitsPerSecond()/outputRate;
+        int averageSize = (resolution == TimeResolution.MILLISECONDS)?(int) Math.max(8,(int)(quantum*2)):8;
+        movingAverage = new WindowedAverage(averageSize,(long) period);
+        averagedPeriod = period;
+        lastPopTimeStamp = resolution.now();
+        lockFree = queue instanceof ConcurrentQueue;
+        waiters = lockFree?new ConcurrentLinkedQueue<Thread>():null;
+        producers = lockFree?new ConcurrentLinkedQueue<Thread>():null;
+        lock = lockFree?null:new ReentrantLock();
+        notEmpty = lockFree?null:lock.newCondition();
+        notFull = lockFree?null:lock.newCondition();
+        if (queue instanceof CoDel) {
+            // losses at dequeue go to the loss listeners too
+            ((CoDel<T>) queue).setDropListener(new QueueDropListener<T>() {
+                @Override
+                public void onDrop(T t) {
+                    notifyListeners(t);
+                }
+            });
+        }
     }
     public boolean put(T t) {
-        synchronized (buffer) {
-            if (buffer.push(t)) {
-                buffer.notify();
-                return true;
+        boolean admitted;
+        if (lockFree) {
+            admitted = buffer.push(t);
+            if (admitted) {
+                for (Thread waiter: waiters)
+                    LockSupport.unpark(waiter);
             }
+        } else {
+            lock.lock();
+            try {
+                admitted = buffer.push(t);
+                if (admitted)
+                    notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+        DefaultMetrics m = metrics;
+        if (m != null) {
+            m.offered(1);
+            if (admitted)
+                m.accepted(1);
+            else
+                m.dropped(1);
+        }
+        if (admitted) {
+            notifyPutListeners();
+            return true;
         }
         notifyListeners(t);
         return false;
     }
     
-    public T get() {
+    @Override
+    public int putAll(Collection<? extends T> c) {
+        List<T> rejected = !listeners.isEmpty()?new ArrayList<T>():null;
+        int count;
+        if (lockFree) {
+            count = buffer.pushAll(c, rejected);
+            if (count > 0)
+                for (Thread waiter: waiters)
+                    LockSupport.unpark(waiter);
+        } else {
+            lock.lock();
+            try {
+                count = buffer.pushAll(c, rejected);
+                if (count > 0)
+                    notEmpty.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+        DefaultMetrics m = metrics;
+        if (m != null) {
+            m.offered(c.size());
+            m.accepted(count);
+            m.dropped(c.size()-count);
+        }
+        if (count > 0)
+            notifyPutListeners();
+        if (rejected != null)
+            for (T t: rejected)
+                notifyListeners(t);
+        return count;
+    }
+    
+    @Override
+    public void putBlocking(T t) throws InterruptedException {
+        putBlocking(t, 0);
+    }
+
+    /** Puts t, waiting while the queue is full.
+     * <p>
+     * Producers blocked here are woken when objects leave, so they go at the
+     * output rate instead of retrying. If the timeout expires the object is lost,
+     * as with {@link #put(Object)}.
+     *
+     * @param t
+     * @param timeout in ms, 0 means forever
+     * @return false if timeout expired
+     * @throws InterruptedException
+     */
+    @Override
+    public boolean putBlocking(T t, long timeout) throws InterruptedException {
+        boolean admitted = lockFree?pushParking(t, timeout):pushWaiting(t, timeout);
+        DefaultMetrics m = metrics;
+        if (m != null) {
+            m.offered(1);
+            if (admitted)
+                m.accepted(1);
+            else
+                m.dropped(1);
+        }
+        if (admitted) {
+            notifyPutListeners();
+            return true;
+        }
+        notifyListeners(t);
+        return false;
+    }
+
+    private boolean pushWaiting(T t, long timeout) throws InterruptedException {
+        long nanos = timeout*1000000L;
+        lock.lockInterruptibly();
+        try {
+            while (!buffer.push(t)) {
+                if (timeout == 0)
+                    notFull.await();
+                else if (nanos > 0)
+                    nanos = notFull.awaitNanos(nanos);
+                else
+                    return false;
+            }
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean pushParking(T t, long timeout) throws InterruptedException {
+        if (!buffer.push(t)) {
+            Thread current = Thread.currentThread();
+            producers.add(current);
+            try {
+                long deadline = System.nanoTime()+timeout*1000000L;
+                // registered before retrying, so a pop in between is not missed
+                while (!buffer.push(t)) {
+                    if (timeout == 0)
+                        LockSupport.park(this);
+                    else {
+                        long remaining = deadline-System.nanoTime();
+                        if (remaining <= 0)
+                            return false;
+                        LockSupport.parkNanos(this, remaining);
+                    }
+                    if (Thread.interrupted())
+                        throw new InterruptedException();
+                }
+            } finally {
+                producers.remove(current);
+            }
+        }
+        for (Thread waiter: waiters)
+            LockSupport.unpark(waiter);
+        return true;
+    }
+
+    /** Wakes the producers blocked on a full queue after a pop.
+     *
+     */
+    private void signalProducers() {
+        if (lockFree) {
+            if (!producers.isEmpty())
+                for (Thread producer: producers)
+                    LockSupport.unpark(producer);
+        } else
+            notFull.signalAll();
+    }
+    
+    /** Moves the objects whose departure time has already come.
+     * <p>
+     * The first one is released as with {@link #get()}, and then one more per
+     * elapsed period. The burst is limited to the size of the moving average window,
+     * which is the horizon the dispatcher uses for compensating the output rate, or
+     * to the objects of two milliseconds if that is greater, so that a consumer
+     * polling at millisecond granularity can still reach high rates.
+     *
+     * @param c
+     * @param max
+     * @return
+     */
+    @Override
+    public int drainTo(Collection<? super T> c, int max) {
+        if (max <= 0 || peekHead() == null)
+            return 0;
+        long timeToWait = TimeToWait();
+        long currentTime = resolution.now();
+        long elapsed = currentTime-lastPopTimeStamp;
+        if (elapsed < timeToWait) 
+            return 0;
+        long allowed = 1+(long) ((elapsed-timeToWait)/period);
+        long maxBurst = Math.max(movingAverage.getSize(), (long) (resolution.fromMillis(2)/period));
+        int n = (int) Math.min(Math.min(max, maxBurst), allowed);
+        int count;
+        if (lockFree) {
+            count = buffer.drainTo(c, n);
+            if (count > 0)
+                signalProducers();
+        } else {
+            lock.lock();
+            try {
+                count = buffer.drainTo(c, n);
+                if (count > 0)
+                    signalProducers();
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (count == 0)
+            return 0;
+        // spread the elapsed time among the released objects
+        long first = Math.max(0, elapsed-(long) ((count-1)*period));
+        error = first-timeToWait;
+        movingAverage.pushValue(first);
+        for (int i = 1; i < count; i++)
+            movingAverage.pushValue((long) period);
+        lastPopTimeStamp = currentTime;
+        DefaultMetrics m = metrics;
+        if (m != null)
+            m.dequeued(count);
+        return count;
+    }
+    
+    private T peekHead() {
+        if (lockFree)
+            return buffer.peekHead();
+        lock.lock();
+        try {
+            return buffer.peekHead();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /** Waits for an element in the queue.
+     * 
+     * @param timeout in ms, 0 means forever
+     * @return the head of the queue or null if timeout expired
+     * @throws InterruptedException 
+     */
+    private T waitHead(long timeout) throws InterruptedException {
         T head;
-        synchronized (buffer) {
-            head = buffer.peekHead();
+        if (lockFree) {
+            Thread current = Thread.currentThread();
+            waiters.add(current);
+            try {
+                long deadline = System.nanoTime()+timeout*1000000L;
+                while ((head = buffer.peekHead()) == null) {
+                    if (timeout == 0)
+                        LockSupport.park(this);
+                    else {
+                        long remaining = deadline-System.nanoTime();
+                        if (remaining <= 0)
+                            break;
+                        LockSupport.parkNanos(this, remaining);
+                    }
+                    if (Thread.interrupted())
+                        throw new InterruptedException();
+                }
+            } finally {
+                waiters.remove(current);
+            }
+            return head;
         }
+        long nanos = timeout*1000000L;
+        lock.lockInterruptibly();
+        try {
+            if (timeout == 0) {
+                while ((head = buffer.peekHead()) == null)
+                    notEmpty.await();
+            } else {
+                while (((head = buffer.peekHead()) == null) && nanos > 0)
+                    nanos = notEmpty.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return head;
+    }
+    
+    public T get() {
+        T head = peekHead();
         if (head == null)
             return null;
         long timeToWait = TimeToWait();
-        long currentTime = System.currentTimeMillis();
+        long currentTime = resolution.now();
         if ((currentTime-lastPopTimeStamp) < timeToWait) 
             return null;
         return updateAndGet(timeToWait);
     }
     
     public T getBlocking() throws InterruptedException {
-        synchronized (buffer) {
-            T head;
-            while ((head = buffer.peekHead()) == null)
-                buffer.wait();       
-        }
+        waitHead(0);
         long timeToWait = TimeToWait();
         long currentTime;
-        while (((currentTime=System.currentTimeMillis())-lastPopTimeStamp) < timeToWait)  {
-            Thread.sleep(timeToWait- (currentTime-lastPopTimeStamp));
+        while (((currentTime=resolution.now())-lastPopTimeStamp) < timeToWait)  {
+            resolution.sleep(timeToWait- (currentTime-lastPopTimeStamp));
         }
         return updateAndGet(timeToWait);
     }
@@ -88,16 +406,30 @@ public class DefaultDispatcher<T> implements Dispatcher<T> {
     private long error = 0;
     private T updateAndGet(long timeToWait) {
         T result;
-        synchronized (buffer) {
+        if (lockFree) {
             result = buffer.pop();
+            if (result != null)
+                signalProducers();
+        } else {
+            lock.lock();
+            try {
+                result = buffer.pop();
+                if (result != null)
+                    notFull.signal();
+            } finally {
+                lock.unlock();
+            }
         }
-        long currentTime = System.currentTimeMillis();
+        long currentTime = resolution.now();
         long realTTW = currentTime-lastPopTimeStamp;
         
         error = (realTTW-timeToWait) ;
 
         movingAverage.pushValue(realTTW);
         lastPopTimeStamp = currentTime;
+        DefaultMetrics m = metrics;
+        if (m != null && result != null)
+            m.dequeued(1);
         return result;
     }
     
@@ -105,24 +437,19 @@ public class DefaultDispatcher<T> implements Dispatcher<T> {
     public T getBlocking(long timeout) throws InterruptedException {
         if (timeout == 0)
             return getBlocking();
-        T head;
-        long initTime = System.currentTimeMillis(),tempTime;
-
-        synchronized (buffer) {
-            while (((head = buffer.peekHead()) == null) && ((tempTime=System.currentTimeMillis())-initTime)<timeout)
-                buffer.wait(timeout-(tempTime-initTime));       
-        }
+        long initUnits = resolution.now(), timeoutUnits = resolution.fromMillis(timeout);
+        T head = waitHead(timeout);
         if (head == null)
             return null;
         long timeToWait = TimeToWait();
         long currentTime;
-        while (( (currentTime=System.currentTimeMillis())-lastPopTimeStamp) < timeToWait) {
-            if ((timeout-(currentTime-initTime)) < (timeToWait- (currentTime-lastPopTimeStamp))) {
-                Thread.sleep(Math.max(0,timeout-(currentTime-initTime)));
+        while (( (currentTime=resolution.now())-lastPopTimeStamp) < timeToWait) {
+            if ((timeoutUnits-(currentTime-initUnits)) < (timeToWait- (currentTime-lastPopTimeStamp))) {
+                resolution.sleep(Math.max(0,timeoutUnits-(currentTime-initUnits)));
                 return null;
             }
             else
-                Thread.sleep(timeToWait- (currentTime-lastPopTimeStamp));
+                resolution.sleep(timeToWait- (currentTime-lastPopTimeStamp));
         }
         return updateAndGet(timeToWait);
     }
@@ -131,41 +458,102 @@ public class DefaultDispatcher<T> implements Dispatcher<T> {
         return Math.max(0L,(long) Math.round(_TimeToWait()-error));
     }
     protected double _TimeToWait() {
-        return period*2-movingAverage.getAverage();
+        double p = period;
+        if (p != averagedPeriod) {
+            // the rate has changed: keep the compensation, but relative to the new period
+            movingAverage.shift((long) p-(long) averagedPeriod);
+            averagedPeriod = p;
+        }
+        return p*2-movingAverage.getAverage();
     }
     @Override
     public double getOutputRate(){
-        return 1000.0/period;
+        return resolution.getUnitsPerSecond()/period;
+    }
+    /** Changes the output rate. It can be called from any thread, and takes
+     * effect from the next object dispatched.
+     *
+     * @param outputRate objects per second
+     */
+    public void setOutputRate(double outputRate) {
+        if (!(outputRate > 0))
+            throw new IllegalArgumentException("Output rate must be greater than zero");
+        period = resolution.getUnitsPerSecond()/outputRate;
+        DefaultMetrics m = metrics;
+        if (m != null)
+            m.setConfiguredRate(outputRate);
     }
     @Override
     public Queue<T> getQueue() {
         return buffer;
     }
-    Set<DispatcherLossListener<T>> listeners = null;
+    public TimeResolution getTimeResolution() {
+        return resolution;
+    }
+    volatile DefaultMetrics metrics = null;
+    /** Enables the metrics of this dispatcher.
+     * <p>
+     * While disabled, they cost nothing in the put and get paths.
+     *
+     * @return
+     */
+    public synchronized Metrics enableMetrics() {
+        if (metrics == null)
+            metrics = new DefaultMetrics(buffer, getOutputRate());
+        return metrics;
+    }
+    public synchronized void disableMetrics() {
+        metrics = null;
+    }
+    /** Metrics of this dispatcher, or null if they are disabled.
+     *
+     * @return
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+    
+    final Set<DispatcherLossListener<T>> listeners = new CopyOnWriteArraySet<>();
     @Override
     public void addDispatcherLossListener(DispatcherLossListener<T> listener) {
-        if (listener == null)
-            return;
-        if (listeners == null)
-            listeners = new LinkedHashSet<>();
-        listeners.add(listener);
+        if (listener != null)
+            listeners.add(listener);
     }
 
     @Override
     public void removeDispatcherLossListener(DispatcherLossListener<T> listener) {
-        if (listeners != null)
-            listeners.remove(listener);
+        listeners.remove(listener);
     }
     
     private void notifyListeners(T t) {
-        if (listeners != null) {
+        if (!listeners.isEmpty()) {
             for (DispatcherLossListener<T> listener: listeners) {
                 listener.onLoss(this, t);
             }
         }
     }
+
+    final Set<DispatcherPutListener<T>> putListeners = new CopyOnWriteArraySet<>();
+    @Override
+    public void addDispatcherPutListener(DispatcherPutListener<T> listener) {
+        if (listener != null)
+            putListeners.add(listener);
+    }
+
+    @Override
+    public void removeDispatcherPutListener(DispatcherPutListener<T> listener) {
+        putListeners.remove(listener);
+    }
+    
+    private void notifyPutListeners() {
+        if (!putListeners.isEmpty()) {
+            for (DispatcherPutListener<T> listener: putListeners) {
+                listener.onPut(this);
+            }
+        }
+    }
     
-    private static long quantum;
+    static long quantum;
     static {
         long t0 = System.currentTimeMillis(), t1;
         while ((t1=System.currentTimeMillis()) == t0) ;
@@ -19,6 +19,7 @@ package flowcontrol.dispatchers;
 import flowcontrol.DispatcherReader;
 import flowcontrol.DispatcherWriter;
 import flowcontrol.events.DispatcherLossListener;
+import flowcontrol.events.DispatcherPutListener;
 import flowcontrol.queues.Queue;
 
 /**
@@ -28,5 +29,7 @@ import flowcontrol.queues.Queue;
 public interface Dispatcher<T> extends DispatcherReader<T>, DispatcherWriter<T>{
     public void addDispatcherLossListener(DispatcherLossListener<T> listener);
     public void removeDispatcherLossListener(DispatcherLossListener<T> listener);
+    public void addDispatcherPutListener(DispatcherPutListener<T> listener);
+    public void removeDispatcherPutListener(DispatcherPutListener<T> listener);
     public Queue<T> getQueue();
 }
@@ -17,15 +17,23 @@
 package flowcontrol.dispatchers;
 
 import flowcontrol.queues.Queue;
+import flowcontrol.util.TimeResolution;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
-/**
+/** Dispatcher whose times between departures are random around the period,
+ * Gaussian unless another {@link Jitter} is given.
+ * <p>
+ * Every consumer thread draws from its own random source, so consumers do not
+ * contend on it. With a seed, the source of the n-th consumer thread is seeded
+ * from it and n, so a single consumer gets the same sequence on every run.
  *
  * @author rpablos
  */
 public class GaussianDispatcher<T> extends DefaultDispatcher<T> {
-    Random random = new Random();
-    double factor;
+    final Jitter jitter;
+    final ThreadLocal<Random> randoms; // null for ThreadLocalRandom
 
     public GaussianDispatcher(double outputRate) {
         this(0.5,outputRate);
@@ -33,21 +41,71 @@ public class GaussianDispatcher<T> extends DefaultDispatcher<T> {
     
     public GaussianDispatcher(double factorStdDev,double outputRate) {
         super(outputRate);
-        factor = factorStdDev;
+        jitter = new GaussianJitter(factorStdDev);
+        randoms = null;
     }
 
     public GaussianDispatcher(double factorStdDev,double outputRate, int bufferLength) {
         super(outputRate, bufferLength);
-        factor = factorStdDev;
+        jitter = new GaussianJitter(factorStdDev);
+        randoms = null;
     }
     public GaussianDispatcher(double factorStdDev,double outputRate, Queue queue) {
         super(outputRate,queue);
-        factor = factorStdDev;
+        jitter = new GaussianJitter(factorStdDev);
+        randoms = null;
+    }
+    public GaussianDispatcher(double factorStdDev,double outputRate, Queue queue, TimeResolution resolution) {
+        super(outputRate,queue,resolution);
+        jitter = new GaussianJitter(factorStdDev);
+        randoms = null;
+    }
+
+    public GaussianDispatcher(Jitter jitter, double outputRate, int bufferLength) {
+        super(outputRate, bufferLength);
+        this.jitter = checkJitter(jitter);
+        randoms = null;
+    }
+    public GaussianDispatcher(Jitter jitter, double outputRate, Queue queue, TimeResolution resolution) {
+        super(outputRate,queue,resolution);
+        this.jitter = checkJitter(jitter);
+        randoms = null;
+    }
+
+    /** Dispatcher with reproducible jitter.
+     *
+     * @param jitter distribution of the times between departures
+     * @param seed
+     * @param outputRate
+     * @param queue
+     * @param resolution
+     */
+    public GaussianDispatcher(Jitter jitter, final long seed, double outputRate, Queue queue, TimeResolution resolution) {
+        super(outputRate,queue,resolution);
+        this.jitter = checkJitter(jitter);
+        final AtomicLong threads = new AtomicLong();
+        randoms = new ThreadLocal<Random>() {
+            @Override
+            protected Random initialValue() {
+                return new Random(seed+0x9E3779B97F4A7C15L*threads.getAndIncrement());
+            }
+        };
+    }
+
+    private static Jitter checkJitter(Jitter jitter) {
+        if (jitter == null)
+            throw new IllegalArgumentException("Jitter cannot be null");
+        return jitter;
+    }
+
+    public Jitter getJitter() {
+        return jitter;
     }
 
     @Override
     protected long TimeToWait() {
-        return Math.max(0L, (long) (super._TimeToWait()+(factor*random.nextGaussian()*period)));
+        Random random = (randoms == null)?ThreadLocalRandom.current():randoms.get();
+        return Math.max(0L, (long) (super._TimeToWait()+((jitter.next(random)-1)*period)));
     }
     
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.dispatchers;
+
+import java.util.Random;
+
+/** Gaussian times between departures around the period, clamped to
+ * period*(1 &plusmn; bound). The bound is symmetric, so the mean is still one period.
+ *
+ * @author rpablos
+ */
+public class GaussianJitter implements Jitter {
+    final double stdDev, bound;
+
+    public GaussianJitter(double stdDev) {
+        this(stdDev, Double.POSITIVE_INFINITY);
+    }
+
+    /** Bounded Gaussian jitter.
+     *
+     * @param stdDev standard deviation, in periods
+     * @param bound maximum deviation, in periods
+     */
+    public GaussianJitter(double stdDev, double bound) {
+        if (stdDev < 0)
+            throw new IllegalArgumentException("Standard deviation cannot be negative");
+        if (bound <= 0)
+            throw new IllegalArgumentException("Bound must be greater than zero");
+        this.stdDev = stdDev;
+        this.bound = bound;
+    }
+
+    @Override
+    public double next(Random random) {
+        double deviation = stdDev*random.nextGaussian();
+        return 1+Math.max(-bound, Math.min(bound, deviation));
+    }
+
+    public double getStdDev() {
+        return stdDev;
+    }
+
+    public double getBound() {
+        return bound;
+    }
+}
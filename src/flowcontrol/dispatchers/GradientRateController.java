@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.dispatchers;
+
+import flowcontrol.stats.EWMA;
+
+/** Controller aiming at a target latency.
+ * <p>
+ * The latency is smoothed with an {@link EWMA}, and every feedback moves the rate
+ * by the smoothing factor towards rate*target/latency, with the gradient limited
+ * to [0.5,2]. So the rate goes up while the latency is below target and down
+ * while it is above, without jumps. A failure counts as the minimum gradient.
+ *
+ * @author rpablos
+ */
+public class GradientRateController implements RateController {
+    static final double MIN_GRADIENT = 0.5, MAX_GRADIENT = 2;
+    final double target, smoothing;
+    final EWMA latency;
+
+    public GradientRateController(double target) {
+        this(target, 0.05);
+    }
+
+    /** Gradient controller.
+     *
+     * @param target latency in ms
+     * @param smoothing weight of every feedback, in (0,1]
+     */
+    public GradientRateController(double target, double smoothing) {
+        if (target <= 0)
+            throw new IllegalArgumentException("Target must be greater than zero");
+        this.target = target;
+        this.smoothing = smoothing;
+        latency = new EWMA(smoothing, target);
+    }
+
+    @Override
+    public double onSuccess(double rate, double latency) {
+        if (Double.isNaN(latency))
+            return rate;
+        this.latency.pushValue(latency);
+        double average = this.latency.getAverage();
+        double gradient = (average > 0)?target/average:MAX_GRADIENT;
+        return move(rate, Math.min(MAX_GRADIENT, Math.max(MIN_GRADIENT, gradient)));
+    }
+
+    @Override
+    public double onFailure(double rate) {
+        return move(rate, MIN_GRADIENT);
+    }
+
+    private double move(double rate, double gradient) {
+        return rate*(1-smoothing)+smoothing*rate*gradient;
+    }
+
+    /** Smoothed latency.
+     *
+     * @return in ms
+     */
+    public double getLatency() {
+        return latency.getAverage();
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.dispatchers;
+
+import java.util.Random;
+
+/** Distribution of the time between departures of a {@link GaussianDispatcher}.
+ * <p>
+ * Jitter de-synchronizes many dispatchers pacing at the same rate. The random
+ * source is owned by the calling thread, so implementations need no state
+ * and no synchronization.
+ *
+ * @author rpablos
+ */
+public interface Jitter {
+    /** Next time between departures.
+     *
+     * @param random source of the calling thread
+     * @return time in periods, with mean 1
+     */
+    public double next(Random random);
+}
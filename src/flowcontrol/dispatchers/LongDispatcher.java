@@ -0,0 +1,250 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.dispatchers;
+
+import flowcontrol.LongDispatcherReader;
+import flowcontrol.LongDispatcherWriter;
+import flowcontrol.queues.LongFIFOQueueBuffer;
+import flowcontrol.queues.LongQueue;
+import flowcontrol.stats.WindowedAverage;
+import flowcontrol.util.TimeResolution;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** {@link DefaultDispatcher} of primitive longs, for moving ids or handles.
+ * <p>
+ * The pacing is the same as the one of DefaultDispatcher, but values are kept
+ * in a {@link LongQueue}, so there is no boxing nor allocation in steady state.
+ * Values that do not fit in the queue are dropped and put returns false.
+ *
+ * @author rpablos
+ */
+public class LongDispatcher implements LongDispatcherReader, LongDispatcherWriter {
+    final LongQueue buffer;
+    final ReentrantLock lock = new ReentrantLock();
+    final Condition notEmpty = lock.newCondition();
+    WindowedAverage movingAverage;
+    final TimeResolution resolution;
+    double period; // inverse of output values per time unit of the resolution
+    long lastPopTimeStamp;
+    private long error = 0;
+
+    public LongDispatcher(double outputRate) {
+        this(outputRate,8);
+    }
+
+    public LongDispatcher(double outputRate, int bufferLength) {
+        this(outputRate,new LongFIFOQueueBuffer(bufferLength));
+    }
+
+    public LongDispatcher(double outputRate, LongQueue queue) {
+        this(outputRate,queue,TimeResolution.MILLISECONDS);
+    }
+
+    public LongDispatcher(double outputRate, LongQueue queue, TimeResolution resolution) {
+        buffer = queue;
+        this.resolution = resolution;
+        period = resolution.getUnitsPerSecond()/outputRate;
+        int averageSize = (resolution == TimeResolution.MILLISECONDS)?(int) Math.max(8,(int)(DefaultDispatcher.quantum*2)):8;
+        movingAverage = new WindowedAverage(averageSize,(long) period);
+        lastPopTimeStamp = resolution.now();
+    }
+
+    @Override
+    public boolean put(long value) {
+        lock.lock();
+        try {
+            if (!buffer.push(value))
+                return false;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int putAll(long[] values, int offset, int length) {
+        lock.lock();
+        try {
+            int count = buffer.pushAll(values, offset, length);
+            if (count > 0)
+                notEmpty.signalAll();
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean isEmpty() {
+        lock.lock();
+        try {
+            return buffer.getSize() == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Waits for a value in the queue.
+     *
+     * @param timeout in ms, 0 means forever
+     * @return false if timeout expired
+     * @throws InterruptedException
+     */
+    private boolean waitHead(long timeout) throws InterruptedException {
+        long nanos = timeout*1000000L;
+        lock.lockInterruptibly();
+        try {
+            if (timeout == 0) {
+                while (buffer.getSize() == 0)
+                    notEmpty.await();
+            } else {
+                while ((buffer.getSize() == 0) && nanos > 0)
+                    nanos = notEmpty.awaitNanos(nanos);
+            }
+            return buffer.getSize() > 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean get(long[] dst, int offset) {
+        if (isEmpty())
+            return false;
+        long timeToWait = TimeToWait();
+        if ((resolution.now()-lastPopTimeStamp) < timeToWait)
+            return false;
+        return updateAndGet(timeToWait, dst, offset);
+    }
+
+    @Override
+    public long getBlocking() throws InterruptedException {
+        while (true) {
+            waitHead(0);
+            long timeToWait = TimeToWait();
+            long currentTime;
+            while (((currentTime=resolution.now())-lastPopTimeStamp) < timeToWait)
+                resolution.sleep(timeToWait-(currentTime-lastPopTimeStamp));
+            long value;
+            lock.lock();
+            try {
+                if (buffer.getSize() == 0)
+                    continue; // taken by another consumer
+                value = buffer.pop();
+            } finally {
+                lock.unlock();
+            }
+            update(timeToWait);
+            return value;
+        }
+    }
+
+    @Override
+    public boolean getBlocking(long[] dst, int offset, long timeout) throws InterruptedException {
+        long initUnits = resolution.now(), timeoutUnits = resolution.fromMillis(timeout);
+        if (!waitHead(timeout))
+            return false;
+        long timeToWait = TimeToWait();
+        long currentTime;
+        while (((currentTime=resolution.now())-lastPopTimeStamp) < timeToWait) {
+            if (timeout != 0 && (timeoutUnits-(currentTime-initUnits)) < (timeToWait-(currentTime-lastPopTimeStamp))) {
+                resolution.sleep(Math.max(0,timeoutUnits-(currentTime-initUnits)));
+                return false;
+            }
+            else
+                resolution.sleep(timeToWait-(currentTime-lastPopTimeStamp));
+        }
+        return updateAndGet(timeToWait, dst, offset);
+    }
+
+    private boolean updateAndGet(long timeToWait, long[] dst, int offset) {
+        lock.lock();
+        try {
+            if (buffer.getSize() == 0)
+                return false;
+            dst[offset] = buffer.pop();
+        } finally {
+            lock.unlock();
+        }
+        update(timeToWait);
+        return true;
+    }
+
+    private void update(long timeToWait) {
+        long currentTime = resolution.now();
+        long realTTW = currentTime-lastPopTimeStamp;
+        error = (realTTW-timeToWait);
+        movingAverage.pushValue(realTTW);
+        lastPopTimeStamp = currentTime;
+    }
+
+    /** Moves the values whose departure time has already come, with the same
+     * burst limit as {@link DefaultDispatcher#drainTo}.
+     *
+     * @param dst
+     * @param offset
+     * @param max
+     * @return
+     */
+    @Override
+    public int drainTo(long[] dst, int offset, int max) {
+        if (max <= 0 || isEmpty())
+            return 0;
+        long timeToWait = TimeToWait();
+        long currentTime = resolution.now();
+        long elapsed = currentTime-lastPopTimeStamp;
+        if (elapsed < timeToWait)
+            return 0;
+        long allowed = 1+(long) ((elapsed-timeToWait)/period);
+        long maxBurst = Math.max(movingAverage.getSize(), (long) (resolution.fromMillis(2)/period));
+        int n = (int) Math.min(Math.min(max, maxBurst), allowed);
+        int count;
+        lock.lock();
+        try {
+            count = buffer.drainTo(dst, offset, n);
+        } finally {
+            lock.unlock();
+        }
+        if (count == 0)
+            return 0;
+        long first = Math.max(0, elapsed-(long) ((count-1)*period));
+        error = first-timeToWait;
+        movingAverage.pushValue(first);
+        for (int i = 1; i < count; i++)
+            movingAverage.pushValue((long) period);
+        lastPopTimeStamp = currentTime;
+        return count;
+    }
+
+    protected long TimeToWait() {
+        return Math.max(0L,(long) Math.round(_TimeToWait()-error));
+    }
+    protected double _TimeToWait() {
+        return period*2-movingAverage.getAverage();
+    }
+    @Override
+    public double getOutputRate() {
+        return resolution.getUnitsPerSecond()/period;
+    }
+    public LongQueue getQueue() {
+        return buffer;
+    }
+    public TimeResolution getTimeResolution() {
+        return resolution;
+    }
+}
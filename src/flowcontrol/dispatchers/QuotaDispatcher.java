@@ -16,16 +16,24 @@
 package flowcontrol.dispatchers;
 
 import flowcontrol.events.DispatcherLossListener;
+import flowcontrol.events.DispatcherPutListener;
 import flowcontrol.events.DispatcherQuotaExhaustedListener;
 import flowcontrol.events.DispatcherQuotaRenewalListener;
+import flowcontrol.metrics.DefaultMetrics;
+import flowcontrol.metrics.Metrics;
 import flowcontrol.queues.FIFOQueueBuffer;
 import flowcontrol.queues.Queue;
+import flowcontrol.quota.QuotaStore;
+import flowcontrol.util.TimingWheel;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
-import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  *
@@ -33,20 +41,102 @@ import java.util.concurrent.TimeUnit;
  * @param <T>
  */
 public class QuotaDispatcher<T> implements Dispatcher<T> {
-    static final Timer timer = new Timer("QuotaDispatcherTimer", true);;
+    static final TimingWheel defaultTimer = new TimingWheel("QuotaDispatcherTimer");
+    final TimingWheel timer;
     final Queue<T> queue;
+    final ReentrantLock lock = new ReentrantLock(); // guards the queue and the quota accounting
+    final Condition notEmpty = lock.newCondition();
+    final Condition canPut = lock.newCondition(); // room in the queue or units of the quota
     
     int consumedUnits = 0;
     int quota;
     long period;
-    TimerTask timerTask;
+    TimingWheel.Timeout timerTask;
     boolean quotaExhausted =false;
+    // distributed mode: units are leased from a store shared with other nodes
+    final QuotaStore store;
+    final String key;
+    final int leaseSize;
+    int leasedUnits = 0;
+    boolean leaseDenied = false;
+    boolean leasing = false; // a producer is calling the store, with the lock released
+    long firstTime; // origin of the periods, ms
+    long currentPeriod;
 
     public QuotaDispatcher(int quota, Date firstTime, long time, TimeUnit unit,int queuesize) {
+        this(quota, firstTime, time, unit, queuesize, defaultTimer);
+    }
+    
+    /** Quota dispatcher whose renewals are scheduled in the given timer.
+     * <p>
+     * By default all quota dispatchers share one timing wheel that runs the
+     * renewals (and so the renewal listeners) in its own thread. A timing wheel
+     * with an executor spreads them over a pool of threads.
+     *
+     * @param quota
+     * @param firstTime
+     * @param time
+     * @param unit
+     * @param queuesize
+     * @param timer
+     */
+    public QuotaDispatcher(int quota, Date firstTime, long time, TimeUnit unit,int queuesize, TimingWheel timer) {
+        this(quota, firstTime, time, unit, queuesize, timer, null, null, 0);
+    }
+
+    public QuotaDispatcher(int quota, Date firstTime, long time, TimeUnit unit,int queuesize, 
+            QuotaStore store, String key, int leaseSize) {
+        this(quota, firstTime, time, unit, queuesize, defaultTimer, store, key, leaseSize);
+    }
+
+    /** Quota dispatcher whose quota is shared with other nodes through a store.
+     * <p>
+     * The quota is the total for all the nodes using the same key. Every node
+     * leases blocks of leaseSize units from the store and admits objects locally
+     * while its lease lasts; the units not consumed are returned at renewal.
+     * Periods are counted from firstTime, so all the nodes must use the same
+     * firstTime and period, and their clocks must be synchronized.
+     *
+     * @param quota
+     * @param firstTime
+     * @param time
+     * @param unit
+     * @param queuesize
+     * @param timer
+     * @param store null for a local quota
+     * @param key
+     * @param leaseSize
+     */
+    public QuotaDispatcher(int quota, Date firstTime, long time, TimeUnit unit,int queuesize, TimingWheel timer,
+            QuotaStore store, String key, int leaseSize) {
+        if (store != null && leaseSize < 1)
+            throw new IllegalArgumentException("Lease size must be greater than zero");
         this.queue = new FIFOQueueBuffer<>(queuesize);
         this.quota = quota;
+        this.timer = timer;
+        this.store = store;
+        this.key = key;
+        this.leaseSize = leaseSize;
         period = unit.toMillis(time);
-        timer.schedule(timerTask=new QuotaTimerTask(), firstTime, period);
+        timerTask = timer.schedule(new QuotaTimerTask(), firstRenewal(firstTime), period);
+    }
+    
+    /** Sets the origin of the periods and returns the first renewal.
+     * <p>
+     * In distributed mode, renewals must happen at the boundaries of the periods,
+     * also if firstTime is in the past.
+     */
+    private Date firstRenewal(Date firstTime) {
+        this.firstTime = firstTime.getTime();
+        currentPeriod = periodAt(System.currentTimeMillis());
+        if (store == null)
+            return firstTime;
+        return new Date(this.firstTime+(currentPeriod+1)*period);
+    }
+    
+    private long periodAt(long time) {
+        long elapsed = time-firstTime;
+        return (elapsed >= 0)?elapsed/period:-((-elapsed+period-1)/period);
     }
     
     @Override
@@ -56,6 +146,15 @@ public class QuotaDispatcher<T> implements Dispatcher<T> {
     public void setQuota(int quota) {
         this.quota = quota;
         quotaExhausted = isQuotaExhausted();
+        lock.lock();
+        try {
+            canPut.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        DefaultMetrics m = metrics;
+        if (m != null)
+            m.setConfiguredRate(getOutputRate());
         
     }
     public int getQuota() {
@@ -65,28 +164,165 @@ public class QuotaDispatcher<T> implements Dispatcher<T> {
         return consumedUnits;
     }
     public boolean isQuotaExhausted() {
+        if (store != null && leaseDenied && consumedUnits >= leasedUnits)
+            return true;
         return getConsumed() >= getQuota();
     }
+    
+    /** Units consumed in this period by all the nodes sharing the quota.
+     *
+     * @return
+     */
+    public int getGlobalConsumed() {
+        if (store == null)
+            return getConsumed();
+        return store.getConsumed(key, currentPeriod);
+    }
+    
+    /** Takes a unit of the quota for an object. Called with the lock held.
+     * <p>
+     * In distributed mode a used up lease is renewed from the store with the lock
+     * released, so that gets and renewals do not wait on a slow store. Only one
+     * producer calls the store at a time, the others wait for its result.
+     *
+     * @return true if there is a unit. It must be consumed by the caller.
+     */
+    private boolean hasUnit() {
+        while (true) {
+            if (consumedUnits >= quota)
+                return false;
+            if (store == null || consumedUnits < leasedUnits)
+                return true;
+            if (leaseDenied)
+                return false;
+            if (leasing) {
+                canPut.awaitUninterruptibly();
+                continue;
+            }
+            leasing = true;
+            long leasePeriod = currentPeriod;
+            int granted = 0;
+            lock.unlock();
+            try {
+                granted = leaseFromStore(leasePeriod);
+            } finally {
+                lock.lock();
+                leasing = false;
+                canPut.signalAll();
+            }
+            // if the quota was renewed meanwhile, the units are of a period already over
+            if (leasePeriod == currentPeriod) {
+                leasedUnits += granted;
+                if (granted == 0)
+                    leaseDenied = true;
+            }
+        }
+    }
+    
+    /** Leases a block from the store. A failure of the store is reported and
+     * denies the lease until the next renewal, as if the quota were exhausted.
+     */
+    private int leaseFromStore(long leasePeriod) {
+        try {
+            return store.lease(key, leaseSize, quota, leasePeriod);
+        } catch (RuntimeException ex) {
+            report(ex);
+            return 0;
+        }
+    }
+    
+    /** Takes back the units leased and not consumed. Called with the lock held.
+     *
+     * @return units to give back to the store, once the lock is released
+     */
+    private int takeUnusedLease() {
+        int unused = leasedUnits-consumedUnits;
+        leasedUnits = consumedUnits;
+        return (store != null)?Math.max(0, unused):0;
+    }
+    
+    private void releaseToStore(int units, long leasePeriod) {
+        if (units == 0)
+            return;
+        try {
+            store.release(key, units, leasePeriod);
+        } catch (RuntimeException ex) {
+            report(ex);
+        }
+    }
+    
+    private void report(RuntimeException ex) {
+        Thread current = Thread.currentThread();
+        current.getUncaughtExceptionHandler().uncaughtException(current, ex);
+    }
+    
+    /** Stops the renewals of the quota, returning the units leased and not consumed.
+     *
+     */
+    public void cancel() {
+        timerTask.cancel();
+        int unused;
+        long leasePeriod;
+        lock.lock();
+        try {
+            unused = takeUnusedLease();
+            leasePeriod = currentPeriod;
+        } finally {
+            lock.unlock();
+        }
+        releaseToStore(unused, leasePeriod);
+    }
     public void changeQuotaPeriodRenewal(Date firstTime,long time, TimeUnit unit) {
         timerTask.cancel();
-        period = unit.toMillis(time);
-        timer.schedule(timerTask=new QuotaTimerTask(), firstTime, period);
+        int unused;
+        long leasePeriod;
+        lock.lock();
+        try {
+            unused = takeUnusedLease();
+            leasePeriod = currentPeriod;
+            period = unit.toMillis(time);
+            firstTime = firstRenewal(firstTime);
+            leaseDenied = false;
+        } finally {
+            lock.unlock();
+        }
+        releaseToStore(unused, leasePeriod);
+        timerTask = timer.schedule(new QuotaTimerTask(), firstTime, period);
+        DefaultMetrics m = metrics;
+        if (m != null)
+            m.setConfiguredRate(getOutputRate());
     }
     
     @Override
     public T get() {
-        synchronized (queue) {
-            return queue.pop();
+        T result;
+        lock.lock();
+        try {
+            result = queue.pop();
+            signalProducers(result != null);
+        } finally {
+            lock.unlock();
         }
+        return dequeued(result);
+    }
+    
+    private T dequeued(T t) {
+        DefaultMetrics m = metrics;
+        if (m != null && t != null)
+            m.dequeued(1);
+        return t;
     }
 
     @Override
     public T getBlocking() throws InterruptedException {
-        T head;
-        synchronized (queue) {
-            while ((head = queue.peekHead()) == null)
-                queue.wait();   
-            return queue.pop();
+        lock.lockInterruptibly();
+        try {
+            while (queue.peekHead() == null)
+                notEmpty.await();
+            signalProducers(true);
+            return dequeued(queue.pop());
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -95,14 +331,32 @@ public class QuotaDispatcher<T> implements Dispatcher<T> {
         if (timeout == 0)
             return getBlocking();
         T head;
-        long initTime = System.currentTimeMillis(),tempTime;
+        long nanos = timeout*1000000L;
+        lock.lockInterruptibly();
+        try {
+            while (((head = queue.peekHead()) == null) && nanos > 0)
+                nanos = notEmpty.awaitNanos(nanos);
+            signalProducers(head != null);
+            return dequeued(queue.pop());
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        synchronized (queue) {
-            while (((head = queue.peekHead()) == null) && ((tempTime=System.currentTimeMillis())-initTime)<timeout)
-                queue.wait(timeout-(tempTime-initTime));       
-            return queue.pop();
+    @Override
+    public int drainTo(Collection<? super T> c, int max) {
+        int count;
+        lock.lock();
+        try {
+            count = queue.drainTo(c, max);
+            signalProducers(count > 0);
+        } finally {
+            lock.unlock();
         }
-        
+        DefaultMetrics m = metrics;
+        if (m != null)
+            m.dequeued(count);
+        return count;
     }
 
     @Override
@@ -124,42 +378,200 @@ public class QuotaDispatcher<T> implements Dispatcher<T> {
             quotaExhausted = true;
             notifyQuotaExhausted();
         }
-        synchronized (queue) {
-            if ((consumedUnits < quota)  && (queue.push(t))) {
+        boolean admitted = false;
+        lock.lock();
+        try {
+            if (hasUnit() && (queue.push(t))) {
                 consumedUnits++;
-                queue.notify();
-                return true;
+                notEmpty.signal();
+                admitted = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        DefaultMetrics m = metrics;
+        if (m != null) {
+            m.offered(1);
+            if (admitted)
+                m.accepted(1);
+            else
+                m.dropped(1);
+        }
+        if (admitted) {
+            notifyPutListeners();
+            return true;
+        }
+        notifyLossListeners(t);
+        return false;
+    }
+    
+    @Override
+    public void putBlocking(T t) throws InterruptedException {
+        putBlocking(t, 0);
+    }
+
+    /** Put an element into dispatcher, waiting while the quota is exhausted or
+     * the queue is full.
+     * <p>
+     * The producer is woken by the renewal of the quota or when an object
+     * leaves. If the timeout expires the element is lost, as with {@link #put(Object)}.
+     *
+     * @param t
+     * @param timeout in ms, 0 means forever
+     * @return false if timeout expired
+     * @throws InterruptedException
+     */
+    @Override
+    public boolean putBlocking(T t, long timeout) throws InterruptedException {
+        if (!quotaExhausted && isQuotaExhausted()) {
+            quotaExhausted = true;
+            notifyQuotaExhausted();
+        }
+        boolean admitted = false;
+        long nanos = timeout*1000000L;
+        lock.lockInterruptibly();
+        try {
+            while (!(admitted = hasUnit() && queue.push(t))) {
+                if (timeout == 0)
+                    canPut.await();
+                else if (nanos > 0)
+                    nanos = canPut.awaitNanos(nanos);
+                else
+                    break;
+            }
+            if (admitted) {
+                consumedUnits++;
+                notEmpty.signal();
             }
+        } finally {
+            lock.unlock();
+        }
+        DefaultMetrics m = metrics;
+        if (m != null) {
+            m.offered(1);
+            if (admitted)
+                m.accepted(1);
+            else
+                m.dropped(1);
+        }
+        if (admitted) {
+            notifyPutListeners();
+            return true;
         }
         notifyLossListeners(t);
         return false;
     }
+
+    private void signalProducers(boolean popped) {
+        if (popped)
+            canPut.signalAll();
+    }
     
-    Set<DispatcherLossListener<T>> lossListeners = null;
+    /** Put all the elements of c into dispatcher, while the quota is not exhausted.
+     *
+     * @param c
+     * @return the number of elements accepted
+     */
+    @Override
+    public int putAll(Collection<? extends T> c) {
+        if (!quotaExhausted && isQuotaExhausted()) {
+            quotaExhausted = true;
+            notifyQuotaExhausted();
+        }
+        List<T> rejected = !lossListeners.isEmpty()?new ArrayList<T>():null;
+        int count = 0;
+        lock.lock();
+        try {
+            for (T t: c) {
+                if (hasUnit() && (queue.push(t))) {
+                    consumedUnits++;
+                    count++;
+                } else if (rejected != null)
+                    rejected.add(t);
+            }
+            if (count > 0)
+                notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        DefaultMetrics m = metrics;
+        if (m != null) {
+            m.offered(c.size());
+            m.accepted(count);
+            m.dropped(c.size()-count);
+        }
+        if (count > 0)
+            notifyPutListeners();
+        if (rejected != null)
+            for (T t: rejected)
+                notifyLossListeners(t);
+        return count;
+    }
+    
+    volatile DefaultMetrics metrics = null;
+    /** Enables the metrics of this dispatcher.
+     * <p>
+     * While disabled, they cost nothing in the put and get paths.
+     *
+     * @return
+     */
+    public synchronized Metrics enableMetrics() {
+        if (metrics == null)
+            metrics = new DefaultMetrics(queue, getOutputRate());
+        return metrics;
+    }
+    public synchronized void disableMetrics() {
+        metrics = null;
+    }
+    /** Metrics of this dispatcher, or null if they are disabled.
+     *
+     * @return
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+    
+    final Set<DispatcherLossListener<T>> lossListeners = new CopyOnWriteArraySet<>();
     @Override
     public void addDispatcherLossListener(DispatcherLossListener<T> listener) {
-        if (listener == null)
-            return;
-        if (lossListeners == null)
-            lossListeners = new LinkedHashSet<>();
-        lossListeners.add(listener);
+        if (listener != null)
+            lossListeners.add(listener);
     }
 
     @Override
     public void removeDispatcherLossListener(DispatcherLossListener<T> listener) {
-        if (lossListeners != null)
-            lossListeners.remove(listener);
+        lossListeners.remove(listener);
     }
     
     private void notifyLossListeners(T t) {
-        if (lossListeners != null) {
+        if (!lossListeners.isEmpty()) {
             for (DispatcherLossListener<T> listener: lossListeners) {
                 listener.onLoss(this, t);
             }
         }
     }
+
+    final Set<DispatcherPutListener<T>> putListeners = new CopyOnWriteArraySet<>();
+    @Override
+    public void addDispatcherPutListener(DispatcherPutListener<T> listener) {
+        if (listener != null)
+            putListeners.add(listener);
+    }
+
+    @Override
+    public void removeDispatcherPutListener(DispatcherPutListener<T> listener) {
+        putListeners.remove(listener);
+    }
     
-    Set<DispatcherQuotaExhaustedListener> quotaExhaustedListeners = null;
+    private void notifyPutListeners() {
+        if (!putListeners.isEmpty()) {
+            for (DispatcherPutListener<T> listener: putListeners) {
+                listener.onPut(this);
+            }
+        }
+    }
+    
+    final Set<DispatcherQuotaExhaustedListener> quotaExhaustedListeners = new CopyOnWriteArraySet<>();
 
     /** Add a listener for the Quota Exhaustion event.
      * <p>
@@ -169,26 +581,22 @@ public class QuotaDispatcher<T> implements Dispatcher<T> {
      * @param listener
      */
     public void addDispatcherQuotaExhaustedListener(DispatcherQuotaExhaustedListener listener) {
-        if (listener == null)
-            return;
-        if (quotaExhaustedListeners == null)
-            quotaExhaustedListeners = new LinkedHashSet<>();
-        quotaExhaustedListeners.add(listener);
+        if (listener != null)
+            quotaExhaustedListeners.add(listener);
     }
 
     public void removeDispatcherQuotaExhaustedListener(DispatcherQuotaExhaustedListener listener) {
-        if (quotaExhaustedListeners != null)
-            quotaExhaustedListeners.remove(listener);
+        quotaExhaustedListeners.remove(listener);
     }
     private void notifyQuotaExhausted() {
-        if (quotaExhaustedListeners != null) {
+        if (!quotaExhaustedListeners.isEmpty()) {
             for (DispatcherQuotaExhaustedListener listener: quotaExhaustedListeners) {
                 listener.onQuotaExhausted(this);
             }
         }
     }
     
-    Set<DispatcherQuotaRenewalListener> quotaRenewalListeners = null;
+    final Set<DispatcherQuotaRenewalListener> quotaRenewalListeners = new CopyOnWriteArraySet<>();
 
     /** Add a listener for the quota renewal event.
      * <p>
@@ -197,32 +605,44 @@ public class QuotaDispatcher<T> implements Dispatcher<T> {
      * @param listener
      */
     public void addDispatcherQuotaRenewalListener(DispatcherQuotaRenewalListener listener) {
-        if (listener == null)
-            return;
-        if (quotaRenewalListeners == null)
-            quotaRenewalListeners = new LinkedHashSet<>();
-        quotaRenewalListeners.add(listener);
+        if (listener != null)
+            quotaRenewalListeners.add(listener);
     }
 
     public void removeDispatcherQuotaRenewalListener(DispatcherQuotaRenewalListener listener) {
-        if (quotaRenewalListeners != null)
-            quotaRenewalListeners.remove(listener);
+        quotaRenewalListeners.remove(listener);
     }
     private void notifyQuotaRenewal() {
-        if (quotaRenewalListeners != null) {
+        if (!quotaRenewalListeners.isEmpty()) {
             for (DispatcherQuotaRenewalListener listener: quotaRenewalListeners) {
                 listener.onQuotaRenewal(this);
             }
         }
     }
     
-    private class QuotaTimerTask extends TimerTask {
+    private class QuotaTimerTask implements Runnable {
 
         @Override
         public void run() {
-            synchronized (queue) {
+            int unused = 0;
+            long leasePeriod;
+            lock.lock();
+            try {
+                leasePeriod = currentPeriod;
+                if (store != null) {
+                    unused = takeUnusedLease();
+                    long now = System.currentTimeMillis();
+                    // the renewal runs at the boundary, a little before or after it
+                    currentPeriod = Math.max(currentPeriod+1, Math.round((now-firstTime)/(double) period));
+                    leasedUnits = 0;
+                    leaseDenied = false;
+                }
                 consumedUnits = 0;
+                canPut.signalAll();
+            } finally {
+                lock.unlock();
             }
+            releaseToStore(unused, leasePeriod);
             quotaExhausted = false;
             notifyQuotaRenewal();
         }
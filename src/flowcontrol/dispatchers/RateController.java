@@ -0,0 +1,40 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.dispatchers;
+
+/** Policy of an {@link AdaptiveDispatcher} for changing its output rate
+ * from the feedback of the consumer.
+ * <p>
+ * Implementations need not be thread-safe: the dispatcher serializes the calls.
+ *
+ * @author rpablos
+ */
+public interface RateController {
+    /** An object was processed successfully downstream.
+     *
+     * @param rate current output rate
+     * @param latency in ms, NaN if it was not measured
+     * @return new output rate
+     */
+    public double onSuccess(double rate, double latency);
+    /** An object failed or was rejected downstream.
+     *
+     * @param rate current output rate
+     * @return new output rate
+     */
+    public double onFailure(double rate);
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.dispatchers;
+
+import flowcontrol.queues.SlabQueueBuffer;
+import flowcontrol.util.TimeResolution;
+import java.nio.ByteBuffer;
+
+/** Dispatcher of packet payloads kept out of the heap.
+ * <p>
+ * Payloads are copied into the direct memory slab of a {@link SlabQueueBuffer}
+ * when put, and dispatched as read-only slices of the slab, as in
+ * {@link DefaultDispatcher}. A dispatched buffer is valid until the next get or
+ * drain, so there must be only one consumer thread at a time, and it must copy
+ * the payload if it needs it for longer.
+ *
+ * @author rpablos
+ */
+public class SlabDispatcher extends DefaultDispatcher<ByteBuffer> {
+
+    public SlabDispatcher(double outputRate, int slabSize, int capacity) {
+        this(outputRate, slabSize, capacity, TimeResolution.MILLISECONDS);
+    }
+
+    public SlabDispatcher(double outputRate, int slabSize, int capacity, TimeResolution resolution) {
+        super(outputRate, new SlabQueueBuffer(slabSize, capacity), resolution);
+    }
+}
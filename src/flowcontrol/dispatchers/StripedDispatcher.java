@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.dispatchers;
+
+import flowcontrol.queues.StripedQueueBuffer;
+import flowcontrol.util.TimeResolution;
+
+/** Dispatcher for many producer threads on many-core hosts.
+ * <p>
+ * Producers put into the shards of a {@link StripedQueueBuffer} without any
+ * lock, while the output is paced as in {@link DefaultDispatcher} with one
+ * global rate. The consumer takes the shards in round robin. There must be
+ * only one consumer thread at a time.
+ *
+ * @author rpablos
+ */
+public class StripedDispatcher<T> extends DefaultDispatcher<T> {
+
+    public StripedDispatcher(double outputRate, int shardSize) {
+        this(outputRate, Runtime.getRuntime().availableProcessors(), shardSize);
+    }
+
+    public StripedDispatcher(double outputRate, int shards, int shardSize) {
+        this(outputRate, shards, shardSize, TimeResolution.NANOSECONDS);
+    }
+
+    public StripedDispatcher(double outputRate, int shards, int shardSize, TimeResolution resolution) {
+        super(outputRate, new StripedQueueBuffer<T>(shards, shardSize), resolution);
+    }
+}
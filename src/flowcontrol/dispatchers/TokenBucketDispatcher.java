@@ -0,0 +1,326 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.dispatchers;
+
+import flowcontrol.events.DispatcherLossListener;
+import flowcontrol.events.DispatcherPutListener;
+import flowcontrol.queues.ConcurrentQueue;
+import flowcontrol.queues.MPMCQueueBuffer;
+import flowcontrol.queues.Queue;
+import flowcontrol.util.TimeResolution;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/** Dispatcher with a sustained output rate that allows bursts up to a size.
+ * <p>
+ * The bucket is refilled lazily: instead of counting tokens, the dispatcher keeps
+ * the theoretical time at which the bucket would be full again, and an object
+ * can leave if that time is less than a burst ahead of the present. That time is
+ * updated with a CAS, so there is no timer thread and no lock on the get path.
+ *
+ * @author rpablos
+ * @param <T>
+ */
+public class TokenBucketDispatcher<T> implements Dispatcher<T> {
+    static final TimeResolution resolution = TimeResolution.NANOSECONDS;
+    final ConcurrentQueue<T> buffer;
+    final double outputRate;
+    final int burstSize;
+    final long period; // ns per token
+    final long burstTime; // ns needed to fill the whole bucket
+    final AtomicLong fullTime; // time when the bucket is full again
+    final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<>();
+    final ConcurrentLinkedQueue<Thread> producers = new ConcurrentLinkedQueue<>(); // blocked on a full queue
+
+    public TokenBucketDispatcher(double outputRate, int burstSize) {
+        this(outputRate, burstSize, Math.max(8, burstSize));
+    }
+
+    public TokenBucketDispatcher(double outputRate, int burstSize, int bufferLength) {
+        this(outputRate, burstSize, new MPMCQueueBuffer<T>(bufferLength));
+    }
+    
+    /** Token bucket dispatcher.
+     *
+     * @param outputRate sustained objects per second
+     * @param burstSize objects that can leave back to back when the bucket is full
+     * @param queue
+     */
+    public TokenBucketDispatcher(double outputRate, int burstSize, ConcurrentQueue<T> queue) {
+        if (outputRate <= 0)
+            throw new IllegalArgumentException("Output rate must be greater than zero");
+        if (burstSize < 1)
+            throw new IllegalArgumentException("Burst size must be greater than zero");
+        buffer = queue;
+        this.outputRate = outputRate;
+        this.burstSize = burstSize;
+        period = Math.max(1L, (long) (resolution.getUnitsPerSecond()/outputRate));
+        burstTime = period*burstSize;
+        fullTime = new AtomicLong(resolution.now()); // starts full
+    }
+
+    /** Takes up to n tokens.
+     *
+     * @param n
+     * @return number of tokens taken
+     */
+    private int acquire(int n) {
+        while (true) {
+            long now = resolution.now();
+            long full = fullTime.get();
+            long base = Math.max(full, now);
+            long available = (now+burstTime-base)/period;
+            if (available <= 0)
+                return 0;
+            int taken = (int) Math.min(n, available);
+            if (fullTime.compareAndSet(full, base+taken*period))
+                return taken;
+        }
+    }
+
+    private void release(int n) {
+        fullTime.addAndGet(-n*period);
+    }
+
+    /** Time to wait for the next token.
+     *
+     * @return ns
+     */
+    private long timeToToken() {
+        return Math.max(0L, fullTime.get()-burstTime+period-resolution.now());
+    }
+
+    @Override
+    public boolean put(T t) {
+        if (buffer.push(t)) {
+            signal();
+            return true;
+        }
+        notifyListeners(t);
+        return false;
+    }
+
+    @Override
+    public int putAll(Collection<? extends T> c) {
+        List<T> rejected = !listeners.isEmpty()?new ArrayList<T>():null;
+        int count = buffer.pushAll(c, rejected);
+        if (count > 0)
+            signal();
+        if (rejected != null)
+            for (T t: rejected)
+                notifyListeners(t);
+        return count;
+    }
+
+    @Override
+    public void putBlocking(T t) throws InterruptedException {
+        putBlocking(t, 0);
+    }
+
+    /** Puts t, parking while the queue is full until an object leaves.
+     *
+     * @param t
+     * @param timeout in ms, 0 means forever
+     * @return false if timeout expired
+     * @throws InterruptedException
+     */
+    @Override
+    public boolean putBlocking(T t, long timeout) throws InterruptedException {
+        if (!buffer.push(t)) {
+            Thread current = Thread.currentThread();
+            producers.add(current);
+            try {
+                long deadline = System.nanoTime()+timeout*1000000L;
+                while (!buffer.push(t)) {
+                    if (timeout == 0)
+                        LockSupport.park(this);
+                    else {
+                        long remaining = deadline-System.nanoTime();
+                        if (remaining <= 0) {
+                            notifyListeners(t);
+                            return false;
+                        }
+                        LockSupport.parkNanos(this, remaining);
+                    }
+                    if (Thread.interrupted())
+                        throw new InterruptedException();
+                }
+            } finally {
+                producers.remove(current);
+            }
+        }
+        signal();
+        return true;
+    }
+
+    private void signalProducers() {
+        if (!producers.isEmpty())
+            for (Thread producer: producers)
+                LockSupport.unpark(producer);
+    }
+
+    private void signal() {
+        for (Thread waiter: waiters)
+            LockSupport.unpark(waiter);
+        notifyPutListeners();
+    }
+
+    @Override
+    public T get() {
+        if (buffer.peekHead() == null || acquire(1) == 0)
+            return null;
+        T result = buffer.pop();
+        if (result == null)
+            release(1); // another consumer took it
+        else
+            signalProducers();
+        return result;
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> c, int max) {
+        int n = Math.min(max, buffer.getSize());
+        if (n <= 0)
+            return 0;
+        int tokens = acquire(n);
+        if (tokens == 0)
+            return 0;
+        int count = buffer.drainTo(c, tokens);
+        if (count < tokens)
+            release(tokens-count);
+        if (count > 0)
+            signalProducers();
+        return count;
+    }
+
+    @Override
+    public T getBlocking() throws InterruptedException {
+        return getBlocking(0, 0L);
+    }
+
+    @Override
+    public T getBlocking(long timeout) throws InterruptedException {
+        if (timeout == 0)
+            return getBlocking();
+        return getBlocking(timeout, System.nanoTime()+timeout*1000000L);
+    }
+
+    private T getBlocking(long timeout, long deadline) throws InterruptedException {
+        Thread current = Thread.currentThread();
+        waiters.add(current);
+        try {
+            while (true) {
+                if (buffer.peekHead() == null) {
+                    if (timeout == 0)
+                        LockSupport.park(this);
+                    else {
+                        long remaining = deadline-System.nanoTime();
+                        if (remaining <= 0)
+                            return null;
+                        LockSupport.parkNanos(this, remaining);
+                    }
+                    if (Thread.interrupted())
+                        throw new InterruptedException();
+                    continue;
+                }
+                T result = get();
+                if (result != null)
+                    return result;
+                long wait = timeToToken();
+                if (timeout != 0) {
+                    long remaining = deadline-System.nanoTime();
+                    if (remaining <= 0)
+                        return null;
+                    wait = Math.min(wait, remaining);
+                }
+                resolution.sleep(wait);
+            }
+        } finally {
+            waiters.remove(current);
+        }
+    }
+
+    @Override
+    public double getOutputRate() {
+        return outputRate;
+    }
+
+    public int getBurstSize() {
+        return burstSize;
+    }
+
+    /** Tokens currently in the bucket.
+     *
+     * @return
+     */
+    public int getAvailableTokens() {
+        long now = resolution.now();
+        long available = (now+burstTime-Math.max(fullTime.get(), now))/period;
+        return (int) Math.max(0, available);
+    }
+
+    @Override
+    public Queue<T> getQueue() {
+        return buffer;
+    }
+
+    final Set<DispatcherLossListener<T>> listeners = new CopyOnWriteArraySet<>();
+    @Override
+    public void addDispatcherLossListener(DispatcherLossListener<T> listener) {
+        if (listener != null)
+            listeners.add(listener);
+    }
+
+    @Override
+    public void removeDispatcherLossListener(DispatcherLossListener<T> listener) {
+        listeners.remove(listener);
+    }
+    
+    private void notifyListeners(T t) {
+        if (!listeners.isEmpty()) {
+            for (DispatcherLossListener<T> listener: listeners) {
+                listener.onLoss(this, t);
+            }
+        }
+    }
+
+    final Set<DispatcherPutListener<T>> putListeners = new CopyOnWriteArraySet<>();
+    @Override
+    public void addDispatcherPutListener(DispatcherPutListener<T> listener) {
+        if (listener != null)
+            putListeners.add(listener);
+    }
+
+    @Override
+    public void removeDispatcherPutListener(DispatcherPutListener<T> listener) {
+        putListeners.remove(listener);
+    }
+    
+    private void notifyPutListeners() {
+        if (!putListeners.isEmpty()) {
+            for (DispatcherPutListener<T> listener: putListeners) {
+                listener.onPut(this);
+            }
+        }
+    }
+}
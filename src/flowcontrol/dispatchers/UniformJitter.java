@@ -0,0 +1,46 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.dispatchers;
+
+import java.util.Random;
+
+/** Times between departures uniform around the period.
+ *
+ * @author rpablos
+ */
+public class UniformJitter implements Jitter {
+    final double width;
+
+    /** Uniform jitter.
+     *
+     * @param width half the width of the interval, in periods, in [0,1]
+     */
+    public UniformJitter(double width) {
+        if (width < 0 || width > 1)
+            throw new IllegalArgumentException("Width must be in [0,1]");
+        this.width = width;
+    }
+
+    @Override
+    public double next(Random random) {
+        return 1+width*(2*random.nextDouble()-1);
+    }
+
+    public double getWidth() {
+        return width;
+    }
+}
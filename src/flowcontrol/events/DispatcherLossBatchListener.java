@@ -0,0 +1,37 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.events;
+
+import flowcontrol.dispatchers.Dispatcher;
+import java.util.List;
+
+/** Listener notified of the losses of a dispatcher in an interval, all at once.
+ * <p>
+ * It is called by an {@link EventBus}, out of the producers' threads.
+ *
+ * @author rpablos
+ */
+public interface DispatcherLossBatchListener<T> {
+    /** Losses of dispatcher since the previous call.
+     *
+     * @param dispatcher
+     * @param lost objects lost, in order. There may be fewer than count if the
+     * event bus was overloaded
+     * @param count number of objects lost
+     */
+    public void onLosses(Dispatcher<T> dispatcher, List<T> lost, long count);
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.events;
+
+import flowcontrol.dispatchers.Dispatcher;
+
+/** Listener notified when objects have been admitted into a dispatcher.
+ * <p>
+ * It is called in the producer's thread, so it must be short. It is meant for
+ * waking up consumers, not for processing the objects.
+ *
+ * @author rpablos
+ */
+public interface DispatcherPutListener<T> {
+    public void onPut(Dispatcher<T> dispatcher);
+}
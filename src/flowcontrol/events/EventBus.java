@@ -0,0 +1,265 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.events;
+
+import flowcontrol.dispatchers.Dispatcher;
+import flowcontrol.dispatchers.QuotaDispatcher;
+import flowcontrol.queues.MPSCQueueBuffer;
+import flowcontrol.util.TimingWheel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Asynchronous delivery of loss and quota events.
+ * <p>
+ * Attached to dispatchers, the bus is their only listener, and it just hands
+ * the event over to a bounded lock-free queue, so a loss costs the producer
+ * a few nanoseconds whatever its listeners do. Every interval the events are
+ * delivered in a timer thread: losses grouped by dispatcher to
+ * {@link DispatcherLossBatchListener}s, and one by one to
+ * {@link DispatcherLossListener}s. If the queue is full, lost objects are only
+ * counted. Quota events are never dropped.
+ * <p>
+ * Listeners are kept in copy-on-write sets, so they can be added and removed
+ * from any thread while events are delivered.
+ *
+ * @author rpablos
+ */
+public class EventBus<T> implements DispatcherLossListener<T>, 
+        DispatcherQuotaExhaustedListener, DispatcherQuotaRenewalListener {
+    static final TimingWheel defaultTimer = new TimingWheel("EventBusTimer");
+    final MPSCQueueBuffer<Loss<T>> losses;
+    final ConcurrentHashMap<Dispatcher<T>,AtomicLong> overflow = new ConcurrentHashMap<>();
+    final ConcurrentLinkedQueue<QuotaEvent> quotaEvents = new ConcurrentLinkedQueue<>();
+    final TimingWheel.Timeout flushTask;
+    final long interval;
+
+    /** Event bus delivering every 100 ms.
+     *
+     * @param capacity losses recorded between deliveries
+     */
+    public EventBus(int capacity) {
+        this(capacity, 100, defaultTimer);
+    }
+
+    /** Event bus.
+     *
+     * @param capacity losses recorded between deliveries
+     * @param interval between deliveries, in ms
+     * @param timer where deliveries run
+     */
+    public EventBus(int capacity, long interval, TimingWheel timer) {
+        losses = new MPSCQueueBuffer<>(capacity);
+        this.interval = interval;
+        flushTask = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, interval, interval);
+    }
+
+    /** Makes this bus the listener of the losses of dispatcher, and of its quota
+     * events if it is a {@link QuotaDispatcher}.
+     *
+     * @param dispatcher
+     */
+    public void attach(Dispatcher<T> dispatcher) {
+        dispatcher.addDispatcherLossListener(this);
+        if (dispatcher instanceof QuotaDispatcher) {
+            ((QuotaDispatcher) dispatcher).addDispatcherQuotaExhaustedListener(this);
+            ((QuotaDispatcher) dispatcher).addDispatcherQuotaRenewalListener(this);
+        }
+    }
+
+    public void detach(Dispatcher<T> dispatcher) {
+        dispatcher.removeDispatcherLossListener(this);
+        if (dispatcher instanceof QuotaDispatcher) {
+            ((QuotaDispatcher) dispatcher).removeDispatcherQuotaExhaustedListener(this);
+            ((QuotaDispatcher) dispatcher).removeDispatcherQuotaRenewalListener(this);
+        }
+    }
+
+    @Override
+    public void onLoss(Dispatcher<T> dispatcher, T t) {
+        if (!losses.push(new Loss<>(dispatcher, t))) {
+            AtomicLong counter = overflow.get(dispatcher);
+            if (counter == null) {
+                AtomicLong previous = overflow.putIfAbsent(dispatcher, counter = new AtomicLong());
+                if (previous != null)
+                    counter = previous;
+            }
+            counter.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void onQuotaExhausted(QuotaDispatcher dispatcher) {
+        quotaEvents.add(new QuotaEvent(dispatcher, true));
+    }
+
+    @Override
+    public void onQuotaRenewal(QuotaDispatcher dispatcher) {
+        quotaEvents.add(new QuotaEvent(dispatcher, false));
+    }
+
+    /** Delivers the pending events now, in the calling thread.
+     *
+     */
+    public synchronized void flush() {
+        Map<Dispatcher<T>,Batch<T>> batches = new LinkedHashMap<>();
+        Loss<T> loss;
+        while ((loss = losses.pop()) != null) {
+            Batch<T> batch = batches.get(loss.dispatcher);
+            if (batch == null)
+                batches.put(loss.dispatcher, batch = new Batch<>());
+            batch.lost.add(loss.t);
+            batch.count++;
+        }
+        for (Map.Entry<Dispatcher<T>,AtomicLong> entry: overflow.entrySet()) {
+            long count = entry.getValue().getAndSet(0);
+            if (count > 0) {
+                Batch<T> batch = batches.get(entry.getKey());
+                if (batch == null)
+                    batches.put(entry.getKey(), batch = new Batch<>());
+                batch.count += count;
+            }
+        }
+        // a failing listener must not cost the others their events
+        for (Map.Entry<Dispatcher<T>,Batch<T>> entry: batches.entrySet()) {
+            Batch<T> batch = entry.getValue();
+            for (DispatcherLossBatchListener<T> listener: batchListeners) {
+                try {
+                    listener.onLosses(entry.getKey(), batch.lost, batch.count);
+                } catch (RuntimeException ex) {
+                    report(ex);
+                }
+            }
+            for (DispatcherLossListener<T> listener: lossListeners) {
+                for (T t: batch.lost) {
+                    try {
+                        listener.onLoss(entry.getKey(), t);
+                    } catch (RuntimeException ex) {
+                        report(ex);
+                    }
+                }
+            }
+        }
+        QuotaEvent event;
+        while ((event = quotaEvents.poll()) != null) {
+            if (event.exhausted) {
+                for (DispatcherQuotaExhaustedListener listener: quotaExhaustedListeners) {
+                    try {
+                        listener.onQuotaExhausted(event.dispatcher);
+                    } catch (RuntimeException ex) {
+                        report(ex);
+                    }
+                }
+            } else {
+                for (DispatcherQuotaRenewalListener listener: quotaRenewalListeners) {
+                    try {
+                        listener.onQuotaRenewal(event.dispatcher);
+                    } catch (RuntimeException ex) {
+                        report(ex);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void report(RuntimeException ex) {
+        Thread current = Thread.currentThread();
+        current.getUncaughtExceptionHandler().uncaughtException(current, ex);
+    }
+
+    /** Stops the deliveries, after delivering the pending events.
+     *
+     */
+    public void close() {
+        flushTask.cancel();
+        flush();
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    final Set<DispatcherLossListener<T>> lossListeners = new CopyOnWriteArraySet<>();
+    final Set<DispatcherLossBatchListener<T>> batchListeners = new CopyOnWriteArraySet<>();
+    final Set<DispatcherQuotaExhaustedListener> quotaExhaustedListeners = new CopyOnWriteArraySet<>();
+    final Set<DispatcherQuotaRenewalListener> quotaRenewalListeners = new CopyOnWriteArraySet<>();
+
+    public void addDispatcherLossListener(DispatcherLossListener<T> listener) {
+        if (listener != null)
+            lossListeners.add(listener);
+    }
+    public void removeDispatcherLossListener(DispatcherLossListener<T> listener) {
+        lossListeners.remove(listener);
+    }
+    public void addDispatcherLossBatchListener(DispatcherLossBatchListener<T> listener) {
+        if (listener != null)
+            batchListeners.add(listener);
+    }
+    public void removeDispatcherLossBatchListener(DispatcherLossBatchListener<T> listener) {
+        batchListeners.remove(listener);
+    }
+    public void addDispatcherQuotaExhaustedListener(DispatcherQuotaExhaustedListener listener) {
+        if (listener != null)
+            quotaExhaustedListeners.add(listener);
+    }
+    public void removeDispatcherQuotaExhaustedListener(DispatcherQuotaExhaustedListener listener) {
+        quotaExhaustedListeners.remove(listener);
+    }
+    public void addDispatcherQuotaRenewalListener(DispatcherQuotaRenewalListener listener) {
+        if (listener != null)
+            quotaRenewalListeners.add(listener);
+    }
+    public void removeDispatcherQuotaRenewalListener(DispatcherQuotaRenewalListener listener) {
+        quotaRenewalListeners.remove(listener);
+    }
+
+    static class Loss<T> {
+        final Dispatcher<T> dispatcher;
+        final T t;
+
+        Loss(Dispatcher<T> dispatcher, T t) {
+            this.dispatcher = dispatcher;
+            this.t = t;
+        }
+    }
+
+    static class Batch<T> {
+        final List<T> lost = new ArrayList<>();
+        long count = 0;
+    }
+
+    static class QuotaEvent {
+        final QuotaDispatcher dispatcher;
+        final boolean exhausted;
+
+        QuotaEvent(QuotaDispatcher dispatcher, boolean exhausted) {
+            this.dispatcher = dispatcher;
+            this.exhausted = exhausted;
+        }
+    }
+}
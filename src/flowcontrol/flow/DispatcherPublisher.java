@@ -0,0 +1,205 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.flow;
+
+import flowcontrol.dispatchers.Dispatcher;
+import flowcontrol.events.DispatcherPutListener;
+import flowcontrol.queues.Queue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Publisher of the objects that leave a dispatcher, at its output rate.
+ * <p>
+ * The demand of the subscribers is served with {@link Dispatcher#drainTo},
+ * so objects are delivered when the dispatcher releases them, and never
+ * beyond what was requested. There is no thread per subscription: delivery
+ * runs as tasks on the given executor, scheduled again one output period later
+ * while the dispatcher holds objects back, or woken by a put when it is empty.
+ * <p>
+ * Subscribers of the same publisher share its objects, each one gets a part.
+ * All of them are served in turns by a single drain loop, because the pacing
+ * state of a dispatcher allows only one consumer at a time. For the same reason,
+ * the publisher must be the only consumer of its dispatcher.
+ * <p>
+ * An invalid request is signalled with onError from the drain loop, never
+ * from the thread calling request, so it does not overlap an onNext.
+ *
+ * @author rpablos
+ */
+public class DispatcherPublisher<T> implements Flow.Publisher<T>, DispatcherPutListener<T>, Runnable {
+    static final int BATCH_SIZE = 64;
+    final Dispatcher<T> dispatcher;
+    final ScheduledExecutorService executor;
+    final List<DispatcherSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    final AtomicInteger wip = new AtomicInteger(); // drain requests; only the first one runs the drain
+    final AtomicBoolean retryScheduled = new AtomicBoolean();
+    final List<T> batch = new ArrayList<>(BATCH_SIZE);
+    int next = 0; // subscription served first in the next turn, only used by the drain
+    final Runnable retry = new Runnable() {
+        @Override
+        public void run() {
+            retryScheduled.set(false);
+            signal();
+        }
+    };
+
+    /** Publisher of dispatcher.
+     * <p>
+     * It takes a {@link Dispatcher} and not just a {@link flowcontrol.DispatcherReader}:
+     * the put listener wakes the delivery when an object enters an empty
+     * dispatcher, and {@link Dispatcher#getQueue()} tells an empty dispatcher
+     * from one holding objects back for the rate. Other readers, such as the
+     * aggregators, can be published through a dispatcher fed by a
+     * {@link flowcontrol.connector.Connector}.
+     *
+     * @param dispatcher
+     * @param executor runs the delivery
+     */
+    public DispatcherPublisher(Dispatcher<T> dispatcher, ScheduledExecutorService executor) {
+        this.dispatcher = dispatcher;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        if (subscriber == null)
+            throw new NullPointerException();
+        DispatcherSubscription subscription = new DispatcherSubscription(subscriber);
+        // listening before onSubscribe, so a put made meanwhile is not missed
+        synchronized (subscriptions) {
+            subscriptions.add(subscription);
+            dispatcher.addDispatcherPutListener(this);
+        }
+        subscriber.onSubscribe(subscription);
+    }
+
+    public Dispatcher<T> getDispatcher() {
+        return dispatcher;
+    }
+
+    @Override
+    public void onPut(Dispatcher<T> dispatcher) {
+        for (DispatcherSubscription subscription: subscriptions)
+            if (subscription.demand.get() > 0) {
+                signal();
+                return;
+            }
+    }
+
+    void signal() {
+        if (wip.getAndIncrement() == 0)
+            executor.execute(this);
+    }
+
+    @Override
+    public void run() {
+        int missed = 1;
+        do {
+            drain();
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /** Serves a batch to the subscriptions with demand in round robin, until the
+     * dispatcher releases no more objects or there is no demand.
+     *
+     */
+    private void drain() {
+        boolean demanded = true;
+        while (demanded) {
+            demanded = false;
+            Object[] snapshot = subscriptions.toArray();
+            for (Object s: snapshot) {
+                DispatcherSubscription subscription = (DispatcherSubscription) s;
+                if (subscription.error != null && !subscription.cancelled) {
+                    subscription.cancel();
+                    subscription.subscriber.onError(subscription.error);
+                }
+            }
+            for (int i = 0; i < snapshot.length; i++) {
+                DispatcherSubscription subscription = (DispatcherSubscription) snapshot[(next+i) % snapshot.length];
+                long requested = subscription.demand.get();
+                if (subscription.cancelled || requested <= 0)
+                    continue;
+                demanded = true;
+                int n = dispatcher.drainTo(batch, (int) Math.min(BATCH_SIZE, requested));
+                if (n == 0) {
+                    Queue<T> queue = dispatcher.getQueue();
+                    // held back by the rate: try again in one period; empty: a put will wake us
+                    if ((queue == null || queue.getSize() > 0) && retryScheduled.compareAndSet(false, true))
+                        executor.schedule(retry, (long) (1e9/dispatcher.getOutputRate()), TimeUnit.NANOSECONDS);
+                    return;
+                }
+                subscription.demand.addAndGet(-n);
+                next = (next+i+1) % snapshot.length;
+                for (T t: batch) {
+                    if (subscription.cancelled)
+                        break;
+                    subscription.subscriber.onNext(t);
+                }
+                batch.clear();
+                break;
+            }
+        }
+    }
+
+    class DispatcherSubscription implements Flow.Subscription {
+        final Flow.Subscriber<? super T> subscriber;
+        final AtomicLong demand = new AtomicLong();
+        volatile boolean cancelled = false;
+        volatile Throwable error = null; // delivered by the drain loop
+
+        DispatcherSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (cancelled)
+                return;
+            if (n <= 0) {
+                if (error == null)
+                    error = new IllegalArgumentException("Demand must be greater than zero: "+n);
+                signal();
+                return;
+            }
+            long current, next;
+            do {
+                current = demand.get();
+                next = current+n;
+                if (next < 0)
+                    next = Long.MAX_VALUE;
+            } while (!demand.compareAndSet(current, next));
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            synchronized (subscriptions) {
+                if (subscriptions.remove(this) && subscriptions.isEmpty())
+                    dispatcher.removeDispatcherPutListener(DispatcherPublisher.this);
+            }
+        }
+    }
+}
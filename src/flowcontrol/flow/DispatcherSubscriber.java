@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.flow;
+
+import flowcontrol.dispatchers.Dispatcher;
+import flowcontrol.queues.Queue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/** Subscriber that puts the items it receives into a dispatcher.
+ * <p>
+ * The demand signalled upstream is the free capacity of the queue of the
+ * dispatcher minus the items already requested, so nothing is buffered outside
+ * the dispatcher and nothing is dropped unless other writers fill the queue too.
+ * When the queue is full and nothing is pending, the free capacity is checked
+ * again one output period later on the given executor.
+ *
+ * @author rpablos
+ */
+public class DispatcherSubscriber<T> implements Flow.Subscriber<T> {
+    final Dispatcher<T> dispatcher;
+    final ScheduledExecutorService executor;
+    Flow.Subscription subscription;
+    long outstanding = 0; // requested and not received yet
+    boolean checkScheduled = false;
+    volatile boolean done = false;
+    volatile Throwable error = null;
+    final Runnable check = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (DispatcherSubscriber.this) {
+                checkScheduled = false;
+            }
+            replenish();
+        }
+    };
+
+    /** Subscriber feeding dispatcher.
+     * <p>
+     * It takes a {@link Dispatcher} and not just a {@link flowcontrol.DispatcherWriter}:
+     * the demand is computed from the size and capacity of
+     * {@link Dispatcher#getQueue()}, and the free capacity is checked again
+     * after one period of its output rate. Other writers, such as the
+     * classificators, can be fed through a dispatcher drained by a
+     * {@link flowcontrol.connector.Connector}.
+     *
+     * @param dispatcher
+     * @param executor runs the checks of the free capacity
+     */
+    public DispatcherSubscriber(Dispatcher<T> dispatcher, ScheduledExecutorService executor) {
+        this.dispatcher = dispatcher;
+        this.executor = executor;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        synchronized (this) {
+            if (this.subscription != null || done) {
+                subscription.cancel();
+                return;
+            }
+            this.subscription = subscription;
+        }
+        replenish();
+    }
+
+    @Override
+    public void onNext(T item) {
+        synchronized (this) {
+            outstanding--;
+        }
+        dispatcher.put(item);
+        replenish();
+    }
+
+    /** Requests the free capacity not requested yet, in chunks of at least a
+     * quarter of the capacity unless nothing is pending.
+     *
+     */
+    private synchronized void replenish() {
+        if (done)
+            return;
+        Queue<T> queue = dispatcher.getQueue();
+        long capacity = queue.getCapacity();
+        long free = capacity-queue.getSize()-outstanding;
+        if (free > 0 && (outstanding == 0 || free >= Math.max(1, capacity/4))) {
+            outstanding += free;
+            subscription.request(free);
+        } else if (outstanding == 0 && !checkScheduled) {
+            checkScheduled = true;
+            executor.schedule(check, (long) (1e9/dispatcher.getOutputRate()), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        error = throwable;
+        done = true;
+    }
+
+    @Override
+    public void onComplete() {
+        done = true;
+    }
+
+    /** Stops the subscription.
+     *
+     */
+    public void cancel() {
+        Flow.Subscription s;
+        synchronized (this) {
+            done = true;
+            s = subscription;
+        }
+        if (s != null)
+            s.cancel();
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    /** Error signalled by the publisher, if any.
+     *
+     * @return
+     */
+    public Throwable getError() {
+        return error;
+    }
+}
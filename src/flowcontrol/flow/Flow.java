@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.flow;
+
+/** Interfaces of reactive streams with demand signalling.
+ * <p>
+ * They are the ones of java.util.concurrent.Flow, with the same methods and
+ * contracts, because this library targets Java 7. Bridging them to the JDK ones,
+ * or to org.reactivestreams, is a matter of delegating method by method.
+ *
+ * @author rpablos
+ */
+public final class Flow {
+
+    private Flow() {
+    }
+
+    public static interface Publisher<T> {
+        public void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    public static interface Subscriber<T> {
+        public void onSubscribe(Subscription subscription);
+        public void onNext(T item);
+        public void onError(Throwable throwable);
+        public void onComplete();
+    }
+
+    public static interface Subscription {
+        /** Adds n items to the demand of the subscriber.
+         *
+         * @param n greater than zero, or the subscriber gets onError
+         */
+        public void request(long n);
+        public void cancel();
+    }
+
+    public static interface Processor<T,R> extends Subscriber<T>, Publisher<R> {
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.htb;
+
+import flowcontrol.DispatcherWriter;
+import flowcontrol.queues.FIFOQueueBuffer;
+import flowcontrol.queues.Queue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/** Class of a {@link HTBDispatcher} tree.
+ * <p>
+ * Every class is guaranteed its rate, and can borrow from its ancestors
+ * up to its ceil rate. Leaf classes hold the objects; they are the
+ * {@link DispatcherWriter}s a {@link flowcontrol.Classificator} returns.
+ *
+ * @author rpablos
+ */
+public class HTBClass<T> implements DispatcherWriter<T> {
+    final HTBDispatcher<T> htb;
+    final HTBClass<T> parent;
+    final String name;
+    final int priority;
+    final int level; // depth in the tree, root is 0
+    final Bucket rate, ceil;
+    final List<HTBClass<T>> children = new ArrayList<>();
+    final int queueSize;
+    Queue<T> queue = null;
+    long dropped = 0;
+
+    HTBClass(HTBDispatcher<T> htb, HTBClass<T> parent, String name, double rate, double ceil, int priority, int queueSize) {
+        if (rate <= 0 || ceil < rate)
+            throw new IllegalArgumentException("Rate must be greater than zero and not greater than ceil");
+        this.htb = htb;
+        this.parent = parent;
+        this.name = name;
+        this.priority = priority;
+        this.level = (parent == null)?0:parent.level+1;
+        this.rate = new Bucket(rate);
+        this.ceil = new Bucket(ceil);
+        this.queueSize = queueSize;
+    }
+
+    /** Adds a child class.
+     *
+     * @param name
+     * @param rate guaranteed objects per second
+     * @param ceil maximum objects per second, borrowing from the ancestors
+     * @param priority lower values are served first, when borrowing too
+     * @param queueSize queue length if the class is a leaf
+     * @return the new class
+     */
+    public HTBClass<T> addClass(String name, double rate, double ceil, int priority, int queueSize) {
+        htb.lock.lock();
+        try {
+            if (queue != null && queue.getSize() > 0)
+                throw new IllegalStateException("Class "+this.name+" has objects queued");
+            if (parent == null && ceil > this.ceil.objectsPerSecond)
+                throw new IllegalArgumentException("Ceil cannot exceed the link rate");
+            HTBClass<T> child = new HTBClass<>(htb, this, name, rate, ceil, priority, queueSize);
+            children.add(child);
+            queue = null;
+            htb.leavesChanged();
+            return child;
+        } finally {
+            htb.lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean put(T t) {
+        htb.lock.lock();
+        try {
+            if (!isLeaf())
+                throw new IllegalStateException("Objects can only be put into leaf classes");
+            if (queue().push(t)) {
+                htb.notEmpty.signal();
+                return true;
+            }
+            dropped++;
+            return false;
+        } finally {
+            htb.lock.unlock();
+        }
+    }
+
+    @Override
+    public int putAll(Collection<? extends T> c) {
+        htb.lock.lock();
+        try {
+            if (!isLeaf())
+                throw new IllegalStateException("Objects can only be put into leaf classes");
+            int count = queue().pushAll(c, null);
+            dropped += c.size()-count;
+            if (count > 0)
+                htb.notEmpty.signalAll();
+            return count;
+        } finally {
+            htb.lock.unlock();
+        }
+    }
+
+    @Override
+    public void putBlocking(T t) throws InterruptedException {
+        putBlocking(t, 0);
+    }
+
+    /** Puts t, waiting while the queue of the class is full.
+     *
+     * @param t
+     * @param timeout in ms, 0 means forever
+     * @return false if timeout expired
+     * @throws InterruptedException
+     */
+    @Override
+    public boolean putBlocking(T t, long timeout) throws InterruptedException {
+        long nanos = timeout*1000000L;
+        htb.lock.lockInterruptibly();
+        try {
+            if (!isLeaf())
+                throw new IllegalStateException("Objects can only be put into leaf classes");
+            while (!queue().push(t)) {
+                if (timeout == 0)
+                    htb.notFull.await();
+                else if (nanos > 0)
+                    nanos = htb.notFull.awaitNanos(nanos);
+                else {
+                    dropped++;
+                    return false;
+                }
+            }
+            htb.notEmpty.signal();
+            return true;
+        } finally {
+            htb.lock.unlock();
+        }
+    }
+
+    Queue<T> queue() {
+        if (queue == null)
+            queue = new FIFOQueueBuffer<>(queueSize);
+        return queue;
+    }
+
+    boolean hasBacklog() {
+        return queue != null && queue.getSize() > 0;
+    }
+
+    public boolean isLeaf() {
+        return children.isEmpty();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public HTBClass<T> getParent() {
+        return parent;
+    }
+
+    public List<HTBClass<T>> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    public double getRate() {
+        return rate.objectsPerSecond;
+    }
+
+    public double getCeil() {
+        return ceil.objectsPerSecond;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public long getDropped() {
+        htb.lock.lock();
+        try {
+            return dropped;
+        } finally {
+            htb.lock.unlock();
+        }
+    }
+
+    /** Lazily refilled token bucket. Tokens can go into debt down to -burst.
+     *
+     */
+    static class Bucket {
+        final double objectsPerSecond;
+        final double perNano;
+        final double burst;
+        double tokens;
+        long lastTime = System.nanoTime();
+
+        Bucket(double objectsPerSecond) {
+            this.objectsPerSecond = objectsPerSecond;
+            perNano = objectsPerSecond/1e9;
+            burst = Math.max(1, objectsPerSecond*HTBDispatcher.BURST_TIME);
+            tokens = burst;
+        }
+
+        void refill(long now) {
+            tokens = Math.min(burst, tokens+(now-lastTime)*perNano);
+            lastTime = now;
+        }
+
+        boolean hasToken() {
+            return tokens >= 1;
+        }
+
+        void take() {
+            tokens = Math.max(-burst, tokens-1);
+        }
+
+        /** ns until there is a token.
+         *
+         * @return
+         */
+        long timeToToken() {
+            return hasToken()?0:(long) ((1-tokens)/perNano);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.htb;
+
+import flowcontrol.Classificator;
+import flowcontrol.DispatcherReader;
+import flowcontrol.DispatcherWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/** Hierarchical token bucket.
+ * <p>
+ * Objects are classified into the leaves of a tree of {@link HTBClass}es by a
+ * {@link Classificator}, and released at the rate of the link, the root of the tree.
+ * Every class has a guaranteed rate and a ceil rate. A class that has used up its
+ * rate borrows the unused rate of its ancestors, up to its ceil, so the link is
+ * fully used whenever any class has backlog and its ceil allows.
+ * <p>
+ * Among the leaves that can send, the ones within their own rate go first,
+ * then the ones borrowing from the closest ancestor, and so on. Inside each group
+ * the lowest priority value goes first, and round robin breaks the ties.
+ *
+ * @author rpablos
+ */
+public class HTBDispatcher<T> implements DispatcherReader<T>, DispatcherWriter<T> {
+    static final double BURST_TIME = 0.01; // seconds of traffic the buckets can hold
+    static final int UNREACHABLE = Integer.MAX_VALUE;
+    final HTBClass<T> root;
+    final Classificator<T> classificator;
+    List<HTBClass<T>> nodes = new ArrayList<>();
+    List<HTBClass<T>> leaves = new ArrayList<>();
+    int nextLeaf = 0;
+    // guards the whole tree; a lock rather than the monitor, so that waiting
+    // consumers and producers can be virtual threads
+    final ReentrantLock lock = new ReentrantLock();
+    final Condition notEmpty = lock.newCondition();
+    final Condition notFull = lock.newCondition(); // room in some leaf
+
+    /** HTB over a link.
+     *
+     * @param linkRate objects per second of the root class
+     * @param classificator it must return leaf classes of this tree
+     */
+    public HTBDispatcher(double linkRate, Classificator<T> classificator) {
+        this.root = new HTBClass<>(this, null, "root", linkRate, linkRate, 0, 0);
+        this.classificator = classificator;
+        leavesChanged();
+    }
+
+    public HTBClass<T> getRoot() {
+        return root;
+    }
+
+    void leavesChanged() {
+        lock.lock();
+        try {
+            nodes = new ArrayList<>();
+            leaves = new ArrayList<>();
+            collect(root);
+            nextLeaf = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void collect(HTBClass<T> node) {
+        nodes.add(node);
+        if (node.isLeaf() && node != root)
+            leaves.add(node);
+        for (HTBClass<T> child: node.children)
+            collect(child);
+    }
+
+    @Override
+    public boolean put(T t) {
+        return classificator.getDispatcherWriter(t).put(t);
+    }
+
+    @Override
+    public void putBlocking(T t) throws InterruptedException {
+        classificator.getDispatcherWriter(t).putBlocking(t);
+    }
+
+    @Override
+    public boolean putBlocking(T t, long timeout) throws InterruptedException {
+        return classificator.getDispatcherWriter(t).putBlocking(t, timeout);
+    }
+
+    @Override
+    public int putAll(Collection<? extends T> c) {
+        int count = 0;
+        for (T t: c)
+            if (put(t))
+                count++;
+        return count;
+    }
+
+    /** Distance from leaf to the ancestor that lends it the rate.
+     *
+     * @param leaf
+     * @return 0 if the leaf is within its rate, UNREACHABLE if it cannot send
+     */
+    private int lendingLevel(HTBClass<T> leaf) {
+        for (HTBClass<T> node = leaf; node != null; node = node.parent) {
+            if (!node.ceil.hasToken())
+                return UNREACHABLE;
+            if (node.rate.hasToken())
+                return leaf.level-node.level;
+        }
+        return UNREACHABLE;
+    }
+
+    @Override
+    public T get() {
+        lock.lock();
+        try {
+            return select();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private T select() {
+        long now = System.nanoTime();
+        for (HTBClass<T> node: nodes) {
+            node.rate.refill(now);
+            node.ceil.refill(now);
+        }
+        int n = leaves.size();
+        int best = -1, bestLevel = UNREACHABLE, bestPriority = Integer.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            int index = (nextLeaf+i) % n;
+            HTBClass<T> leaf = leaves.get(index);
+            if (!leaf.hasBacklog())
+                continue;
+            int level = lendingLevel(leaf);
+            if (level < bestLevel || (level == bestLevel && level != UNREACHABLE && leaf.priority < bestPriority)) {
+                best = index;
+                bestLevel = level;
+                bestPriority = leaf.priority;
+            }
+        }
+        if (best < 0)
+            return null;
+        HTBClass<T> leaf = leaves.get(best);
+        for (HTBClass<T> node = leaf; node != null; node = node.parent) {
+            node.rate.take();
+            node.ceil.take();
+        }
+        nextLeaf = (best+1) % n;
+        T result = leaf.queue.pop();
+        notFull.signalAll();
+        return result;
+    }
+
+    private boolean hasBacklog() {
+        for (HTBClass<T> leaf: leaves)
+            if (leaf.hasBacklog())
+                return true;
+        return false;
+    }
+
+    @Override
+    public T getBlocking() throws InterruptedException {
+        T result;
+        lock.lockInterruptibly();
+        try {
+            while ((result = select()) == null) {
+                if (hasBacklog())
+                    notEmpty.await(getPollPeriod(), TimeUnit.MILLISECONDS);
+                else
+                    notEmpty.await();
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public T getBlocking(long timeout) throws InterruptedException {
+        if (timeout == 0)
+            return getBlocking();
+        T result;
+        long nanos = timeout*1000000L;
+        lock.lockInterruptibly();
+        try {
+            while (((result = select()) == null) && nanos > 0) {
+                long poll = hasBacklog()?Math.min(TimeUnit.MILLISECONDS.toNanos(getPollPeriod()), nanos):nanos;
+                nanos -= poll-notEmpty.awaitNanos(poll);
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long getPollPeriod() {
+        return Math.max(1, (long) (1000/root.getCeil()));
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> c, int max) {
+        int count = 0;
+        T t;
+        while (count < max && (t = get()) != null) {
+            c.add(t);
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public double getOutputRate() {
+        return root.getCeil();
+    }
+}
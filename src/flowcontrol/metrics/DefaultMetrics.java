@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.metrics;
+
+import flowcontrol.queues.Queue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Lock-free implementation of {@link Metrics} fed by the instrumented components.
+ * <p>
+ * The achieved rate is counted on the dequeue path in a ring of 100 ms slots,
+ * so reading it has no side effect. Each slot packs the number of its period
+ * with its count, and is reset by the first departure of a new period.
+ *
+ * @author rpablos
+ */
+public class DefaultMetrics implements Metrics {
+    static final int BUCKETS = 32;
+    static final int RATE_SLOTS = 10; // a window of one second
+    static final long SLOT_NANOS = 100000000L;
+    static final int COUNT_BITS = 40;
+    static final long COUNT_MASK = (1L << COUNT_BITS)-1;
+    final StripedCounter offered = new StripedCounter();
+    final StripedCounter accepted = new StripedCounter();
+    final StripedCounter dropped = new StripedCounter();
+    final StripedCounter dequeued = new StripedCounter();
+    final AtomicLongArray jitter = new AtomicLongArray(BUCKETS);
+    final AtomicLong lastDeparture = new AtomicLong(0);
+    final Queue<?> queue;
+    volatile double configuredRate;
+    final long origin = System.nanoTime();
+    final AtomicLongArray rateSlots = new AtomicLongArray(RATE_SLOTS); // period << COUNT_BITS | count
+
+    /** Metrics of a component.
+     *
+     * @param queue queue for the occupancy gauges. It can be null.
+     * @param configuredRate objects per second. Zero if the component has no output rate.
+     */
+    public DefaultMetrics(Queue<?> queue, double configuredRate) {
+        this.queue = queue;
+        this.configuredRate = configuredRate;
+    }
+
+    public void offered(int n) {
+        offered.add(n);
+    }
+
+    public void accepted(int n) {
+        accepted.add(n);
+    }
+
+    public void dropped(int n) {
+        dropped.add(n);
+    }
+
+    /** Records the departure of n objects at once.
+     *
+     * @param n
+     */
+    public void dequeued(int n) {
+        if (n <= 0)
+            return;
+        dequeued.add(n);
+        long now = System.nanoTime();
+        countDeparture(now, n);
+        long previous = lastDeparture.getAndSet(now);
+        if (previous == 0 || configuredRate <= 0)
+            return;
+        long interval = (now-previous)/n;
+        long deviation = Math.abs(interval-(long) (1000000000.0/configuredRate));
+        jitter.incrementAndGet(bucket(deviation/1000));
+    }
+
+    private void countDeparture(long now, int n) {
+        long slot = (now-origin)/SLOT_NANOS;
+        int i = (int) (slot % RATE_SLOTS);
+        long tag = slot << COUNT_BITS;
+        long value, update;
+        do {
+            value = rateSlots.get(i);
+            update = ((value & ~COUNT_MASK) == tag)?value+n:tag+n;
+        } while (!rateSlots.compareAndSet(i, value, update));
+    }
+
+    static int bucket(long micros) {
+        if (micros <= 0)
+            return 0;
+        return Math.min(BUCKETS-1, 64-Long.numberOfLeadingZeros(micros));
+    }
+
+    public void setConfiguredRate(double configuredRate) {
+        this.configuredRate = configuredRate;
+    }
+
+    @Override
+    public long getOffered() {
+        return offered.sum();
+    }
+
+    @Override
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    @Override
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getDequeued() {
+        return dequeued.sum();
+    }
+
+    @Override
+    public int getQueueSize() {
+        return (queue == null)?0:queue.getSize();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return (queue == null)?0:queue.getCapacity();
+    }
+
+    @Override
+    public double getConfiguredRate() {
+        return configuredRate;
+    }
+
+    @Override
+    public double getAchievedRate() {
+        long current = (System.nanoTime()-origin)/SLOT_NANOS;
+        // only the complete slots, the current one is still counting
+        long complete = Math.min(RATE_SLOTS, current);
+        if (complete == 0)
+            return 0;
+        long count = 0;
+        for (long slot = current-complete; slot < current; slot++) {
+            long value = rateSlots.get((int) (slot % RATE_SLOTS));
+            if ((value & ~COUNT_MASK) == slot << COUNT_BITS)
+                count += value & COUNT_MASK;
+        }
+        return count*1000000000.0/(complete*SLOT_NANOS);
+    }
+
+    @Override
+    public long[] getJitterHistogram() {
+        long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            result[i] = jitter.get(i);
+        return result;
+    }
+}
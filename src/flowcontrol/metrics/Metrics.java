@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.metrics;
+
+import javax.management.MXBean;
+
+/** Counters and gauges of a dispatcher, queue, aggregator or connector manager.
+ * <p>
+ * It is an MXBean, so it can be registered as is with {@link MetricsRegistry}.
+ * Counters that do not apply to a component stay at zero.
+ *
+ * @author rpablos
+ */
+@MXBean
+public interface Metrics {
+    /** Objects offered to the component.
+     *
+     * @return
+     */
+    public long getOffered();
+    public long getAccepted();
+    public long getDropped();
+    public long getDequeued();
+    public int getQueueSize();
+    public int getQueueCapacity();
+    /** Output rate the component is configured for, in objects per second.
+     *
+     * @return
+     */
+    public double getConfiguredRate();
+    /** Output rate achieved over the last second, in objects per second.
+     * <p>
+     * Reading it does not reset anything, so several readers see the same value.
+     *
+     * @return
+     */
+    public double getAchievedRate();
+    /** Histogram of the deviation of the inter-departure time from the configured period.
+     * <p>
+     * Bucket 0 counts deviations under 1 us, and bucket i the deviations
+     * in [2^(i-1), 2^i) us.
+     *
+     * @return
+     */
+    public long[] getJitterHistogram();
+}
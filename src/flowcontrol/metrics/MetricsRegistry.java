@@ -0,0 +1,60 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.metrics;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/** Registration of metrics in the platform MBean server.
+ * <p>
+ * Metrics are published as {@code flowcontrol:type=<type>,name=<name>}.
+ *
+ * @author rpablos
+ */
+public class MetricsRegistry {
+
+    private MetricsRegistry() {
+    }
+
+    public static ObjectName register(String type, String name, Metrics metrics) {
+        try {
+            ObjectName objectName = objectName(type, name);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(metrics, objectName);
+            return objectName;
+        } catch (JMException ex) {
+            throw new IllegalStateException("Cannot register metrics "+type+" "+name, ex);
+        }
+    }
+
+    public static void unregister(String type, String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = objectName(type, name);
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+        } catch (JMException ex) {
+            throw new IllegalStateException("Cannot unregister metrics "+type+" "+name, ex);
+        }
+    }
+
+    static ObjectName objectName(String type, String name) throws JMException {
+        return new ObjectName("flowcontrol:type="+type+",name="+ObjectName.quote(name));
+    }
+}
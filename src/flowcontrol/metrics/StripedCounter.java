@@ -0,0 +1,52 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Counter spread over several cells to avoid contention between threads.
+ * <p>
+ * Every thread adds to the cell chosen by its id, and the cells are padded so
+ * that they do not share cache lines. Reading the counter sums all the cells.
+ *
+ * @author rpablos
+ */
+public class StripedCounter {
+    static final int PADDING = 8; // longs per cache line
+    static final int STRIPES;
+    static {
+        int n = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()*2-1))<<1;
+        STRIPES = Math.min(n, 64);
+    }
+    final AtomicLongArray cells = new AtomicLongArray(STRIPES*PADDING);
+
+    public void add(long value) {
+        int stripe = (int) (Thread.currentThread().getId() & (STRIPES-1));
+        cells.getAndAdd(stripe*PADDING, value);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public long sum() {
+        long result = 0;
+        for (int i = 0; i < STRIPES; i++)
+            result += cells.get(i*PADDING);
+        return result;
+    }
+}
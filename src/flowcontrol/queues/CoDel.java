@@ -0,0 +1,217 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.queues;
+
+import flowcontrol.metrics.DefaultMetrics;
+import flowcontrol.metrics.Metrics;
+import java.util.Collection;
+
+/** Controlled Delay queue (RFC 8289).
+ * <p>
+ * Enqueues are timestamped and drops happen at dequeue, when the sojourn time
+ * of the objects has been above target for at least interval. While dropping,
+ * the next drop comes after interval/sqrt(drops), so the delay is driven back
+ * to target without thresholds on the queue size.
+ *
+ * @author rpablos
+ */
+public class CoDel<T> extends FIFOQueueBuffer<T> {
+    final long[] enqueueTime;
+    final long target, interval; // ns
+    long firstAboveTime = 0, dropNext = 0;
+    int count = 0, lastCount = 0;
+    boolean dropping = false;
+    long dropped = 0;
+
+    /** CoDel with the usual target of 5 ms and interval of 100 ms.
+     *
+     * @param size
+     */
+    public CoDel(int size) {
+        this(size, 5, 100);
+    }
+
+    /** CoDel queue.
+     *
+     * @param size
+     * @param target acceptable sojourn time in ms
+     * @param interval in ms, in the order of a round trip time
+     */
+    public CoDel(int size, double target, double interval) {
+        super(size);
+        if (target <= 0 || interval <= 0)
+            throw new IllegalArgumentException("Target and interval must be greater than zero");
+        enqueueTime = new long[size];
+        this.target = (long) (target*1000000);
+        this.interval = (long) (interval*1000000);
+    }
+
+    @Override
+    public boolean push(T t) {
+        boolean result = super.push(t);
+        if (result)
+            enqueueTime[tail] = System.nanoTime();
+        DefaultMetrics m = metrics;
+        if (m != null) {
+            m.offered(1);
+            if (result)
+                m.accepted(1);
+            else
+                m.dropped(1);
+        }
+        return result;
+    }
+
+    @Override
+    public int pushAll(Collection<? extends T> c, Collection<? super T> rejected) {
+        int count = 0;
+        for (T t: c) {
+            if (push(t))
+                count++;
+            else if (rejected != null)
+                rejected.add(t);
+            else
+                break;
+        }
+        return count;
+    }
+
+    boolean okToDrop;
+    private T doDequeue(long now) {
+        okToDrop = false;
+        if (size == 0) {
+            firstAboveTime = 0;
+            return null;
+        }
+        long sojourn = now-enqueueTime[head];
+        T result = super.pop();
+        if (sojourn < target || size == 0) {
+            firstAboveTime = 0;
+        } else if (firstAboveTime == 0) {
+            firstAboveTime = now+interval;
+        } else if (now >= firstAboveTime) {
+            okToDrop = true;
+        }
+        return result;
+    }
+
+    private long controlLaw(long t, int count) {
+        return t+(long) (interval/Math.sqrt(count));
+    }
+
+    private void drop(T t) {
+        dropped++;
+        DefaultMetrics m = metrics;
+        if (m != null)
+            m.dropped(1);
+        QueueDropListener<? super T> listener = dropListener;
+        if (listener != null)
+            listener.onDrop(t);
+    }
+
+    @Override
+    public T pop() {
+        long now = System.nanoTime();
+        T result = doDequeue(now);
+        if (dropping) {
+            if (!okToDrop)
+                dropping = false;
+            else {
+                while (now >= dropNext && dropping) {
+                    drop(result);
+                    count++;
+                    result = doDequeue(now);
+                    if (!okToDrop)
+                        dropping = false;
+                    else
+                        dropNext = controlLaw(dropNext, count);
+                }
+            }
+        } else if (okToDrop) {
+            drop(result);
+            result = doDequeue(now);
+            dropping = true;
+            int delta = count-lastCount;
+            count = (delta > 1 && now-dropNext < 16*interval)?delta:1;
+            dropNext = controlLaw(now, count);
+            lastCount = count;
+        }
+        DefaultMetrics m = metrics;
+        if (m != null && result != null)
+            m.dequeued(1);
+        return result;
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> c, int max) {
+        int n = 0;
+        T t;
+        while (n < max && (t = pop()) != null) {
+            c.add(t);
+            n++;
+        }
+        return n;
+    }
+
+    /** Objects dropped at dequeue because of their sojourn time.
+     *
+     * @return
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    public boolean isDropping() {
+        return dropping;
+    }
+
+    volatile QueueDropListener<? super T> dropListener = null;
+    /** Sets the listener of the objects dropped at dequeue. It is called inside
+     * pop, so with the lock of the dispatcher held.
+     * <p>
+     * A {@link flowcontrol.dispatchers.DefaultDispatcher} sets itself, to report
+     * them to its loss listeners.
+     *
+     * @param listener null for none
+     */
+    public void setDropListener(QueueDropListener<? super T> listener) {
+        dropListener = listener;
+    }
+
+    volatile DefaultMetrics metrics = null;
+    /** Enables the metrics of this queue.
+     * <p>
+     * The objects dropped at dequeue are counted as dropped too.
+     *
+     * @return
+     */
+    public synchronized Metrics enableMetrics() {
+        if (metrics == null)
+            metrics = new DefaultMetrics(this, 0);
+        return metrics;
+    }
+    public synchronized void disableMetrics() {
+        metrics = null;
+    }
+    /** Metrics of this queue, or null if they are disabled.
+     *
+     * @return
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.queues;
+
+/** Queue that is safe for concurrent use without any external locking.
+ * <p>
+ * Dispatchers do not synchronize on queues of this type, so producers
+ * never contend on the queue monitor.
+ * <p>
+ * Push and pop must publish with a volatile write, not a lazySet: the dispatcher
+ * reads the threads waiting on it right after them, and a release-only store
+ * could be reordered after that read, so a waiter would never be woken.
+ *
+ * @author rpablos
+ */
+public interface ConcurrentQueue<T> extends Queue<T> {
+    
+}
@@ -16,6 +16,8 @@
 
 package flowcontrol.queues;
 
+import java.util.Collection;
+
 /**
  *
  * @author Ronald
@@ -54,6 +56,31 @@ public class FIFOQueueBuffer<T> implements Queue<T>{
         }
         return null;
     }
+    public int pushAll(Collection<? extends T> c, Collection<? super T> rejected) {
+        int count = 0;
+        for (T t: c) {
+            if (size < buffer.length) {
+                tail = (tail+1) % buffer.length;
+                buffer[tail] = t;
+                size++;
+                count++;
+            } else if (rejected != null)
+                rejected.add(t);
+            else
+                break;
+        }
+        return count;
+    }
+    public int drainTo(Collection<? super T> c, int max) {
+        int count = Math.min(max, size);
+        for (int i = 0; i < count; i++) {
+            c.add((T) buffer[head]);
+            buffer[head] = null; //libera
+            head = (head+1) % buffer.length;
+        }
+        size -= count;
+        return count;
+    }
     public T peekHead() {
         if (size > 0) {
            return (T) buffer[head];
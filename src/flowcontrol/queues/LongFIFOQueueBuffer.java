@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.queues;
+
+import java.util.NoSuchElementException;
+
+/** {@link FIFOQueueBuffer} of primitive longs, backed by a long[] ring.
+ *
+ * @author rpablos
+ */
+public class LongFIFOQueueBuffer implements LongQueue {
+    final long[] buffer;
+    int head = 0,tail = -1;
+    int size = 0;
+
+    public LongFIFOQueueBuffer(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("Size must be greater than zero");
+        buffer = new long[size];
+    }
+
+    @Override
+    public int getCapacity() {
+        return buffer.length;
+    }
+    @Override
+    public int getSize() {
+        return size;
+    }
+    @Override
+    public boolean push(long value) {
+        if (size < buffer.length) {
+            tail = (tail+1) % buffer.length;
+            buffer[tail] = value;
+            size++;
+            return true;
+        }
+        return false;
+    }
+    @Override
+    public long pop() {
+        if (size == 0)
+            throw new NoSuchElementException();
+        long result = buffer[head];
+        size--;
+        head = (head+1) % buffer.length;
+        return result;
+    }
+    @Override
+    public long peekHead() {
+        if (size == 0)
+            throw new NoSuchElementException();
+        return buffer[head];
+    }
+    @Override
+    public long peekTail() {
+        if (size == 0)
+            throw new NoSuchElementException();
+        return buffer[tail];
+    }
+    @Override
+    public int pushAll(long[] values, int offset, int length) {
+        int count = Math.min(length, buffer.length-size);
+        for (int i = 0; i < count; i++) {
+            tail = (tail+1) % buffer.length;
+            buffer[tail] = values[offset+i];
+        }
+        size += count;
+        return count;
+    }
+    @Override
+    public int drainTo(long[] dst, int offset, int max) {
+        int count = Math.min(max, size);
+        for (int i = 0; i < count; i++) {
+            dst[offset+i] = buffer[head];
+            head = (head+1) % buffer.length;
+        }
+        size -= count;
+        return count;
+    }
+}
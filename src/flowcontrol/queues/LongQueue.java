@@ -0,0 +1,49 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.queues;
+
+/** Queue of primitive longs, without boxing.
+ * <p>
+ * There is no value reserved for the empty queue: check {@link #getSize()}
+ * before pop or peek, which throw NoSuchElementException when it is empty.
+ *
+ * @author rpablos
+ */
+public interface LongQueue {
+    public int getSize();
+    public int getCapacity();
+    public boolean push(long value);
+    public long pop();
+    public long peekHead();
+    public long peekTail();
+    /** Pushes values[offset..offset+length) in order, until the queue is full.
+     *
+     * @param values
+     * @param offset
+     * @param length
+     * @return the number of values admitted
+     */
+    public int pushAll(long[] values, int offset, int length);
+    /** Pops up to max values from the head into dst, from offset on.
+     *
+     * @param dst
+     * @param offset
+     * @param max
+     * @return the number of values moved
+     */
+    public int drainTo(long[] dst, int offset, int max);
+}
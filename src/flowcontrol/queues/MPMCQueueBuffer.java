@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.queues;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/** Bounded lock-free multi-producer multi-consumer queue.
+ * <p>
+ * Sequence-based ring buffer: every slot carries a sequence number that tells
+ * producers and consumers whether the slot is free or full for their turn,
+ * so the only contended operation is a CAS on the tail (or head) counter.
+ * Like {@link FIFOQueueBuffer}, an object pushed into a full queue is
+ * rejected (tail drop).
+ *
+ * @author rpablos
+ */
+public class MPMCQueueBuffer<T> implements ConcurrentQueue<T> {
+    final int capacity;
+    final AtomicReferenceArray<T> buffer;
+    final AtomicLongArray sequences;
+    final AtomicLong head = new AtomicLong();
+    final AtomicLong tail = new AtomicLong();
+
+    public MPMCQueueBuffer(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("Size must be greater than zero");
+        capacity = size;
+        buffer = new AtomicReferenceArray<>(size);
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+    }
+
+    final int index(long position) {
+        return (int) (position % capacity);
+    }
+    
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public int getSize() {
+        long size = tail.get()-head.get();
+        return (int) Math.max(0, Math.min(capacity, size));
+    }
+
+    @Override
+    public boolean push(T t) {
+        long position = tail.get();
+        int index;
+        while (true) {
+            index = index(position);
+            long difference = sequences.get(index)-position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position+1))
+                    break;
+                position = tail.get();
+            } else if (difference < 0) {
+                return false; // full
+            } else
+                position = tail.get();
+        }
+        buffer.lazySet(index, t);
+        // volatile, not lazySet: the dispatcher reads its waiters after the push
+        sequences.set(index, position+1);
+        return true;
+    }
+
+    @Override
+    public T pop() {
+        long position = head.get();
+        int index;
+        while (true) {
+            index = index(position);
+            long difference = sequences.get(index)-(position+1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position+1))
+                    break;
+                position = head.get();
+            } else if (difference < 0) {
+                return null; // empty
+            } else
+                position = head.get();
+        }
+        return release(index, position);
+    }
+
+    final T release(int index, long position) {
+        T result = buffer.get(index);
+        buffer.lazySet(index, null);
+        // volatile, not lazySet: the dispatcher reads its blocked producers after the pop
+        sequences.set(index, position+capacity);
+        return result;
+    }
+    
+    @Override
+    public int pushAll(Collection<? extends T> c, Collection<? super T> rejected) {
+        int count = 0;
+        for (T t: c) {
+            if (push(t))
+                count++;
+            else if (rejected != null)
+                rejected.add(t);
+            else
+                break;
+        }
+        return count;
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> c, int max) {
+        int count = 0;
+        T t;
+        while (count < max && (t = pop()) != null) {
+            c.add(t);
+            count++;
+        }
+        return count;
+    }
+    
+    @Override
+    public T peekHead() {
+        long position = head.get();
+        int index = index(position);
+        if (sequences.get(index) != position+1)
+            return null;
+        return buffer.get(index);
+    }
+
+    @Override
+    public T peekTail() {
+        long position = tail.get()-1;
+        if (position < head.get())
+            return null;
+        int index = index(position);
+        if (sequences.get(index) != position+1)
+            return null;
+        return buffer.get(index);
+    }
+    
+}
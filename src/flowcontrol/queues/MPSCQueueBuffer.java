@@ -0,0 +1,42 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.queues;
+
+/** Bounded lock-free multi-producer single-consumer queue.
+ * <p>
+ * Same ring as {@link MPMCQueueBuffer}, but the consumer side does not need
+ * any CAS. Only one thread at a time may call {@link #pop()}.
+ *
+ * @author rpablos
+ */
+public class MPSCQueueBuffer<T> extends MPMCQueueBuffer<T> {
+
+    public MPSCQueueBuffer(int size) {
+        super(size);
+    }
+
+    @Override
+    public T pop() {
+        long position = head.get();
+        int index = index(position);
+        if (sequences.get(index) != position+1)
+            return null; // empty
+        head.lazySet(position+1);
+        return release(index, position);
+    }
+    
+}
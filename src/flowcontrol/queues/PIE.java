@@ -0,0 +1,203 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.queues;
+
+import flowcontrol.metrics.DefaultMetrics;
+import flowcontrol.metrics.Metrics;
+import java.util.Collection;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** Proportional Integral controller Enhanced queue (RFC 8033).
+ * <p>
+ * Enqueues are timestamped and the queueing delay is the sojourn time measured
+ * at dequeue. Every update interval the drop probability is corrected in
+ * proportion to the deviation of the delay from target and to its trend, and
+ * objects are dropped at enqueue with that probability. The update is done on
+ * the push and pop paths, so no timer is needed.
+ *
+ * @author rpablos
+ */
+public class PIE<T> extends FIFOQueueBuffer<T> {
+    static final double ALPHA = 0.125, BETA = 1.25; // Hz
+    final long[] enqueueTime;
+    final long target, tUpdate, maxBurst; // ns
+    double dropProbability = 0;
+    long qdelay = 0, qdelayOld = 0;
+    long burstAllowance;
+    long nextUpdate;
+
+    /** PIE with the usual target of 15 ms, update interval of 15 ms and burst
+     * allowance of 150 ms.
+     *
+     * @param size
+     */
+    public PIE(int size) {
+        this(size, 15, 15, 150);
+    }
+
+    /** PIE queue.
+     *
+     * @param size
+     * @param target acceptable queueing delay in ms
+     * @param tUpdate interval between updates of the drop probability in ms
+     * @param maxBurst burst of delay above target tolerated without drops, in ms
+     */
+    public PIE(int size, double target, double tUpdate, double maxBurst) {
+        super(size);
+        if (target <= 0 || tUpdate <= 0 || maxBurst < 0)
+            throw new IllegalArgumentException("Target and update interval must be greater than zero");
+        enqueueTime = new long[size];
+        this.target = (long) (target*1000000);
+        this.tUpdate = (long) (tUpdate*1000000);
+        this.maxBurst = (long) (maxBurst*1000000);
+        burstAllowance = this.maxBurst;
+        nextUpdate = System.nanoTime()+this.tUpdate;
+    }
+
+    @Override
+    public boolean push(T t) {
+        long now = System.nanoTime();
+        update(now);
+        boolean result = !dropEarly() && super.push(t);
+        if (result)
+            enqueueTime[tail] = now;
+        DefaultMetrics m = metrics;
+        if (m != null) {
+            m.offered(1);
+            if (result)
+                m.accepted(1);
+            else
+                m.dropped(1);
+        }
+        return result;
+    }
+
+    private boolean dropEarly() {
+        if (burstAllowance > 0)
+            return false;
+        if (qdelayOld < target/2 && dropProbability < 0.2)
+            return false;
+        if (size <= 2)
+            return false;
+        return ThreadLocalRandom.current().nextDouble() < dropProbability;
+    }
+
+    private void update(long now) {
+        if (now < nextUpdate)
+            return;
+        if (size == 0)
+            qdelay = 0;
+        double p = ALPHA*(qdelay-target)/1e9+BETA*(qdelay-qdelayOld)/1e9;
+        // auto-tuning: smaller steps while the probability is small
+        if (dropProbability < 0.000001)
+            p /= 2048;
+        else if (dropProbability < 0.00001)
+            p /= 512;
+        else if (dropProbability < 0.0001)
+            p /= 128;
+        else if (dropProbability < 0.001)
+            p /= 32;
+        else if (dropProbability < 0.01)
+            p /= 8;
+        else if (dropProbability < 0.1)
+            p /= 2;
+        if (dropProbability >= 0.1 && p > 0.02)
+            p = 0.02;
+        dropProbability += p;
+        if (qdelay == 0 && qdelayOld == 0)
+            dropProbability *= 0.98;
+        dropProbability = Math.min(1, Math.max(0, dropProbability));
+        burstAllowance = Math.max(0, burstAllowance-tUpdate);
+        if (dropProbability == 0 && qdelay < target/2 && qdelayOld < target/2)
+            burstAllowance = maxBurst;
+        qdelayOld = qdelay;
+        nextUpdate = now+tUpdate;
+    }
+
+    @Override
+    public int pushAll(Collection<? extends T> c, Collection<? super T> rejected) {
+        // every element must pass through the early drop
+        int count = 0;
+        for (T t: c) {
+            if (push(t))
+                count++;
+            else if (rejected != null)
+                rejected.add(t);
+        }
+        return count;
+    }
+
+    @Override
+    public T pop() {
+        if (size == 0)
+            return null;
+        long now = System.nanoTime();
+        qdelay = now-enqueueTime[head];
+        T result = super.pop();
+        update(now);
+        DefaultMetrics m = metrics;
+        if (m != null)
+            m.dequeued(1);
+        return result;
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> c, int max) {
+        int n = 0;
+        T t;
+        while (n < max && (t = pop()) != null) {
+            c.add(t);
+            n++;
+        }
+        return n;
+    }
+
+    public double getDropProbability() {
+        return dropProbability;
+    }
+
+    /** Queueing delay of the last dequeued object.
+     *
+     * @return in ms
+     */
+    public double getQueueDelay() {
+        return qdelay/1e6;
+    }
+
+    volatile DefaultMetrics metrics = null;
+    /** Enables the metrics of this queue.
+     * <p>
+     * While disabled, they cost nothing in the put and get paths.
+     *
+     * @return
+     */
+    public synchronized Metrics enableMetrics() {
+        if (metrics == null)
+            metrics = new DefaultMetrics(this, 0);
+        return metrics;
+    }
+    public synchronized void disableMetrics() {
+        metrics = null;
+    }
+    /** Metrics of this queue, or null if they are disabled.
+     *
+     * @return
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+}
@@ -16,6 +16,8 @@
 
 package flowcontrol.queues;
 
+import java.util.Collection;
+
 /**
  *
  * @author Ronald
@@ -27,4 +29,18 @@ public interface Queue<T> {
     public T pop();
     public T peekHead();
     public T peekTail();
+    /** Pushes the elements of c in iteration order.
+     *
+     * @param c
+     * @param rejected collection where the elements not admitted are added. It can be null.
+     * @return the number of elements admitted
+     */
+    public int pushAll(Collection<? extends T> c, Collection<? super T> rejected);
+    /** Pops up to max elements from the head into c.
+     *
+     * @param c
+     * @param max
+     * @return the number of elements moved
+     */
+    public int drainTo(Collection<? super T> c, int max);
 }
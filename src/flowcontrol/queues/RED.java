@@ -16,8 +16,11 @@
 
 package flowcontrol.queues;
 
-import flowcontrol.util.MovingAverage;
-import java.util.Random;
+import flowcontrol.metrics.DefaultMetrics;
+import flowcontrol.metrics.Metrics;
+import flowcontrol.stats.WindowedAverage;
+import java.util.Collection;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  *
@@ -26,26 +29,137 @@ import java.util.Random;
 public class RED<T> extends FIFOQueueBuffer<T>{
     int minThreshold, maxThreshold;
     double discardProbability;
-    MovingAverage movingAverage;
-    Random random = new Random();
+    WindowedAverage movingAverage;
+    // adaptive mode: discardProbability is tuned every ADAPTATION_INTERVAL
+    final boolean adaptive;
+    static final long ADAPTATION_INTERVAL = 500000000L; // ns
+    long nextAdaptation;
     
     public RED(int size, int minThreshold, int maxThreshold, double discardProbability) {
+        this(size, minThreshold, maxThreshold, discardProbability, false);
+    }
+
+    /** RED queue, optionally adaptive.
+     * <p>
+     * In adaptive mode (Adaptive RED, Floyd et al.) discardProbability is only the
+     * initial value. Every half a second it is increased additively if the average
+     * size is above the middle of the thresholds band, or decreased multiplicatively
+     * if it is below, keeping it between 0.01 and 0.5.
+     *
+     * @param size
+     * @param minThreshold
+     * @param maxThreshold
+     * @param discardProbability
+     * @param adaptive
+     */
+    public RED(int size, int minThreshold, int maxThreshold, double discardProbability, boolean adaptive) {
         super(size);
         this.minThreshold = minThreshold;
         this.maxThreshold = maxThreshold;
         this.discardProbability = discardProbability;
-        movingAverage = new MovingAverage();
+        this.adaptive = adaptive;
+        movingAverage = new WindowedAverage(8,0);
+        nextAdaptation = System.nanoTime()+ADAPTATION_INTERVAL;
     }
 
     @Override
     public boolean push(T t) {
+        boolean result = earlyDetection(t);
+        DefaultMetrics m = metrics;
+        if (m != null) {
+            m.offered(1);
+            if (result)
+                m.accepted(1);
+            else
+                m.dropped(1);
+        }
+        return result;
+    }
+    
+    private boolean earlyDetection(T t) {
         movingAverage.pushValue(getSize());
         int average = (int) movingAverage.getAverage();
+        if (adaptive)
+            adapt(average);
         if (average > maxThreshold)
             return false;
-        if ((average > minThreshold) && (random.nextDouble() <= discardProbability))
+        if ((average > minThreshold) && (ThreadLocalRandom.current().nextDouble() <= discardProbability))
             return false;
         return super.push(t); 
     }
+
+    private void adapt(double average) {
+        long now = System.nanoTime();
+        if (now < nextAdaptation)
+            return;
+        nextAdaptation = now+ADAPTATION_INTERVAL;
+        double band = maxThreshold-minThreshold;
+        if (average > minThreshold+0.6*band && discardProbability <= 0.5)
+            discardProbability += Math.min(0.01, discardProbability/4);
+        else if (average < minThreshold+0.4*band && discardProbability >= 0.01)
+            discardProbability *= 0.9;
+    }
+
+    public double getDiscardProbability() {
+        return discardProbability;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    @Override
+    public T pop() {
+        T result = super.pop();
+        DefaultMetrics m = metrics;
+        if (m != null && result != null)
+            m.dequeued(1);
+        return result;
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> c, int max) {
+        int count = super.drainTo(c, max);
+        DefaultMetrics m = metrics;
+        if (m != null)
+            m.dequeued(count);
+        return count;
+    }
+
+    volatile DefaultMetrics metrics = null;
+    /** Enables the metrics of this queue.
+     * <p>
+     * While disabled, they cost nothing in the put and get paths.
+     *
+     * @return
+     */
+    public synchronized Metrics enableMetrics() {
+        if (metrics == null)
+            metrics = new DefaultMetrics(this, 0);
+        return metrics;
+    }
+    public synchronized void disableMetrics() {
+        metrics = null;
+    }
+    /** Metrics of this queue, or null if they are disabled.
+     *
+     * @return
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public int pushAll(Collection<? extends T> c, Collection<? super T> rejected) {
+        // every element must pass through the early detection
+        int count = 0;
+        for (T t: c) {
+            if (push(t))
+                count++;
+            else if (rejected != null)
+                rejected.add(t);
+        }
+        return count;
+    }
     
 }
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.queues;
+
+import java.nio.ByteBuffer;
+
+/** Conversion of objects to bytes, for queues that keep them out of the heap.
+ *
+ * @author rpablos
+ */
+public interface Serializer<T> {
+    public byte[] serialize(T t);
+    /** Object from its bytes.
+     *
+     * @param buffer read-only view of the bytes of the object, from position to limit.
+     * It is only valid during the call.
+     * @return
+     */
+    public T deserialize(ByteBuffer buffer);
+}
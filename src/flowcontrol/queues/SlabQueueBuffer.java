@@ -0,0 +1,211 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.queues;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+/** FIFO queue of byte payloads stored out of the heap.
+ * <p>
+ * Payloads are copied on push into a direct memory slab allocated once, as
+ * length-prefixed records in a ring. {@link #pop()} returns a read-only slice of
+ * the slab, without copying. The space of the records handed out is reclaimed,
+ * in FIFO order, on the next pop or drain, so a returned buffer is valid only until
+ * the queue is consumed again. It is meant for one consumer at a time.
+ * <p>
+ * Like {@link FIFOQueueBuffer}, it is not thread-safe.
+ *
+ * @author rpablos
+ */
+public class SlabQueueBuffer implements Queue<ByteBuffer> {
+    static final int WRAP = -1;
+    final ByteBuffer slab;
+    final int slabSize;
+    final int capacity;
+    long head = 0; // reclaimed up to here
+    long read = 0; // handed out up to here
+    long tail = 0; // written up to here
+    long last = 0; // start of the last record
+    int size = 0;
+    ByteBuffer headView = null, tailView = null;
+
+    /** Slab queue.
+     *
+     * @param slabSize bytes of direct memory
+     * @param capacity maximum number of payloads
+     */
+    public SlabQueueBuffer(int slabSize, int capacity) {
+        if (slabSize < 8)
+            throw new IllegalArgumentException("Slab size must be at least 8 bytes");
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be greater than zero");
+        slab = ByteBuffer.allocateDirect(slabSize);
+        this.slabSize = slabSize;
+        this.capacity = capacity;
+    }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    public int getSlabSize() {
+        return slabSize;
+    }
+
+    /** Bytes of the slab in use, including the ones handed out and not reclaimed yet.
+     *
+     * @return
+     */
+    public int getUsedBytes() {
+        return (int) (tail-head);
+    }
+
+    /** Copies the remaining bytes of the buffer into the slab. The position of
+     * the buffer is not changed.
+     *
+     * @param t
+     * @return false if there is no room for it
+     */
+    @Override
+    public boolean push(ByteBuffer t) {
+        int length = t.remaining();
+        int record = 4+length;
+        if (size >= capacity || record > slabSize)
+            return false;
+        if (size == 0 && head == tail)
+            // empty and nothing handed out: start again at the beginning of the slab
+            head = read = tail = last = 0;
+        int position = (int) (tail % slabSize);
+        int skip = (slabSize-position < record)?slabSize-position:0;
+        if (tail-head+skip+record > slabSize)
+            return false;
+        if (skip > 0) {
+            if (skip >= 4)
+                slab.putInt(position, WRAP);
+            tail += skip;
+            position = 0;
+        }
+        last = tail;
+        slab.putInt(position, length);
+        ByteBuffer target = slab.duplicate();
+        target.position(position+4);
+        target.put(t.duplicate());
+        tail += record;
+        size++;
+        tailView = null;
+        return true;
+    }
+
+    @Override
+    public ByteBuffer pop() {
+        reclaim();
+        ByteBuffer result = peekHead();
+        if (result != null) {
+            read += advance()+4+result.remaining();
+            size--;
+            headView = null;
+            if (size == 0)
+                tailView = null;
+        }
+        return result;
+    }
+
+    /** Bytes to skip at the end of the slab before the next record.
+     *
+     * @return
+     */
+    private int advance() {
+        int position = (int) (read % slabSize);
+        int left = slabSize-position;
+        return (left < 4 || slab.getInt(position) == WRAP)?left:0;
+    }
+
+    private void reclaim() {
+        head = read;
+    }
+
+    private ByteBuffer view(int position, int length) {
+        ByteBuffer view = slab.duplicate();
+        view.limit(position+length).position(position);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public ByteBuffer peekHead() {
+        if (size == 0)
+            return null;
+        if (headView == null) {
+            int position = (int) ((read+advance()) % slabSize);
+            headView = view(position+4, slab.getInt(position));
+        }
+        return headView;
+    }
+
+    @Override
+    public ByteBuffer peekTail() {
+        if (size == 0)
+            return null;
+        if (tailView == null) {
+            int position = (int) (last % slabSize);
+            tailView = view(position+4, slab.getInt(position));
+        }
+        return tailView;
+    }
+
+    @Override
+    public int pushAll(Collection<? extends ByteBuffer> c, Collection<? super ByteBuffer> rejected) {
+        int count = 0;
+        for (ByteBuffer t: c) {
+            if (push(t))
+                count++;
+            else if (rejected != null)
+                rejected.add(t);
+            else
+                break;
+        }
+        return count;
+    }
+
+    /** Drains payloads. All of them stay valid until the next pop or drain.
+     *
+     * @param c
+     * @param max
+     * @return
+     */
+    @Override
+    public int drainTo(Collection<? super ByteBuffer> c, int max) {
+        reclaim();
+        int count = 0;
+        ByteBuffer t;
+        while (count < max && (t = peekHead()) != null) {
+            read += advance()+4+t.remaining();
+            size--;
+            headView = null;
+            c.add(t);
+            count++;
+        }
+        if (size == 0)
+            tailView = null;
+        return count;
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.queues;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Collection;
+
+/** FIFO queue that spills to disk when its memory ring is full.
+ * <p>
+ * Objects beyond the memory capacity are serialized into append-only segment
+ * files mapped in memory, as length-prefixed records. Once the queue has spilled,
+ * new objects go to disk until the disk part is drained, so the order is kept.
+ * Segments are read sequentially and recycled when consumed, so the heap stays
+ * small whatever the backlog. Objects are dropped only when maxSegments are full,
+ * or when they have to spill and their record does not fit in a segment.
+ * <p>
+ * Like {@link FIFOQueueBuffer}, it is not thread-safe.
+ *
+ * @author rpablos
+ */
+public class SpillQueueBuffer<T> implements Queue<T> {
+    final FIFOQueueBuffer<T> memory;
+    final Serializer<T> serializer;
+    final File directory;
+    final int segmentSize;
+    final int maxSegments;
+    final ArrayDeque<Segment> segments = new ArrayDeque<>(); // head is read, tail is written
+    final ArrayDeque<Segment> free = new ArrayDeque<>();
+    int diskSize = 0;
+    int nextSegmentId = 0;
+    T diskHead = null; // deserialized head of the disk part
+    T lastPushed = null;
+
+    /** Spill queue.
+     *
+     * @param memorySize objects kept in memory
+     * @param serializer
+     * @param directory where the segment files are created
+     * @param segmentSize bytes of every segment file. Objects whose serialized form
+     * is longer than segmentSize-8 bytes cannot spill, and are dropped when the
+     * memory is full.
+     * @param maxSegments segments on disk at most
+     */
+    public SpillQueueBuffer(int memorySize, Serializer<T> serializer, File directory, int segmentSize, int maxSegments) {
+        if (segmentSize < 8)
+            throw new IllegalArgumentException("Segment size must be at least 8 bytes");
+        if (maxSegments < 1)
+            throw new IllegalArgumentException("Number of segments must be greater than zero");
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IllegalArgumentException("Cannot create directory "+directory);
+        memory = new FIFOQueueBuffer<>(memorySize);
+        this.serializer = serializer;
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+    }
+
+    @Override
+    public int getSize() {
+        return memory.getSize()+diskSize;
+    }
+
+    /** The capacity is limited by the disk space, not by a number of objects.
+     *
+     * @return Integer.MAX_VALUE
+     */
+    @Override
+    public int getCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    public int getMemoryCapacity() {
+        return memory.getCapacity();
+    }
+
+    /** Objects currently on disk.
+     *
+     * @return
+     */
+    public int getSpilled() {
+        return diskSize;
+    }
+
+    @Override
+    public boolean push(T t) {
+        boolean result = (diskSize == 0 && memory.push(t)) || spill(t);
+        if (result)
+            lastPushed = t;
+        return result;
+    }
+
+    private boolean spill(T t) {
+        byte[] bytes = serializer.serialize(t);
+        if (bytes.length+8 > segmentSize)
+            return false; // it would never fit, like a full queue
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.remaining() < bytes.length+4) {
+            if (segments.size() >= maxSegments)
+                return false;
+            if (segment != null)
+                segment.close();
+            segment = newSegment();
+            segments.addLast(segment);
+        }
+        segment.buffer.putInt(segment.writePosition, bytes.length);
+        ByteBuffer view = segment.buffer.duplicate();
+        view.position(segment.writePosition+4);
+        view.put(bytes);
+        segment.writePosition += 4+bytes.length;
+        diskSize++;
+        return true;
+    }
+
+    @Override
+    public T pop() {
+        T result = memory.pop();
+        if (result != null)
+            return result;
+        result = peekDisk();
+        if (result != null) {
+            diskHead = null;
+            diskSize--;
+            if (diskSize == 0)
+                recycle(segments.pollFirst());
+        }
+        if (getSize() == 0)
+            lastPushed = null;
+        return result;
+    }
+
+    /** Reads the head of the disk part without consuming it.
+     *
+     * @return
+     */
+    private T peekDisk() {
+        if (diskHead != null || diskSize == 0)
+            return diskHead;
+        Segment segment = segments.peekFirst();
+        // a consumed segment is closed, as there are records after it
+        while (segment.readPosition >= segment.writePosition) {
+            recycle(segments.pollFirst());
+            segment = segments.peekFirst();
+        }
+        int length = segment.buffer.getInt(segment.readPosition);
+        ByteBuffer record = segment.buffer.duplicate();
+        record.position(segment.readPosition+4).limit(segment.readPosition+4+length);
+        diskHead = serializer.deserialize(record.slice().asReadOnlyBuffer());
+        segment.readPosition += 4+length;
+        return diskHead;
+    }
+
+    @Override
+    public T peekHead() {
+        T result = memory.peekHead();
+        return (result != null)?result:peekDisk();
+    }
+
+    @Override
+    public T peekTail() {
+        return (getSize() > 0)?lastPushed:null;
+    }
+
+    @Override
+    public int pushAll(Collection<? extends T> c, Collection<? super T> rejected) {
+        int count = 0;
+        for (T t: c) {
+            if (push(t))
+                count++;
+            else if (rejected != null)
+                rejected.add(t);
+            else
+                break;
+        }
+        return count;
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> c, int max) {
+        int count = 0;
+        T t;
+        while (count < max && (t = pop()) != null) {
+            c.add(t);
+            count++;
+        }
+        return count;
+    }
+
+    /** Deletes the segment files.
+     *
+     */
+    public void close() {
+        for (Segment segment: segments)
+            segment.file.delete();
+        for (Segment segment: free)
+            segment.file.delete();
+        segments.clear();
+        free.clear();
+        diskSize = 0;
+        diskHead = null;
+    }
+
+    private Segment newSegment() {
+        Segment segment = free.pollFirst();
+        if (segment != null) {
+            segment.readPosition = segment.writePosition = 0;
+            segment.closed = false;
+            return segment;
+        }
+        File file = new File(directory, "spill-"+System.identityHashCode(this)+"-"+(nextSegmentId++)+".seg");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); 
+             FileChannel channel = raf.getChannel()) {
+            file.deleteOnExit();
+            return new Segment(file, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot create segment "+file, ex);
+        }
+    }
+
+    private void recycle(Segment segment) {
+        if (segment == null)
+            return;
+        if (free.size() < 2)
+            free.addLast(segment);
+        else
+            segment.file.delete();
+    }
+
+    static class Segment {
+        final File file;
+        final MappedByteBuffer buffer;
+        int writePosition = 0, readPosition = 0; // writePosition is the end of the records
+        boolean closed = false;
+
+        Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        int remaining() {
+            return closed?0:buffer.capacity()-writePosition;
+        }
+
+        /** No more records are written, even if there is room left.
+         *
+         */
+        void close() {
+            closed = true;
+        }
+    }
+}
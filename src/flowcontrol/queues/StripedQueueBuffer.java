@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.queues;
+
+import java.util.Collection;
+
+/** Queue split into shards so that producers in different threads do not contend.
+ * <p>
+ * Every producer pushes into the shard chosen by its thread id, and tries the
+ * next shards only if that one is full, so objects are dropped only when the
+ * whole queue is full. The consumer takes the shards in round robin. The order
+ * is FIFO inside each shard, not across shards.
+ * <p>
+ * Shards are {@link MPSCQueueBuffer}s, so only one thread at a time may pop.
+ *
+ * @author rpablos
+ */
+public class StripedQueueBuffer<T> implements ConcurrentQueue<T> {
+    final MPSCQueueBuffer<T>[] shards;
+    final int mask;
+    int next = 0; // next shard to pop, only used by the consumer
+
+    public StripedQueueBuffer(int size) {
+        this(Runtime.getRuntime().availableProcessors(), Math.max(1, size/Runtime.getRuntime().availableProcessors()));
+    }
+
+    /** Striped queue.
+     *
+     * @param shards number of shards, rounded up to a power of two
+     * @param shardSize capacity of every shard
+     */
+    public StripedQueueBuffer(int shards, int shardSize) {
+        if (shards < 1)
+            throw new IllegalArgumentException("Number of shards must be greater than zero");
+        int n = Integer.highestOneBit(shards);
+        if (n < shards)
+            n <<= 1;
+        this.shards = new MPSCQueueBuffer[n];
+        for (int i = 0; i < n; i++)
+            this.shards[i] = new MPSCQueueBuffer<>(shardSize);
+        mask = n-1;
+    }
+
+    private int home() {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 16)) & mask;
+    }
+
+    public int getShards() {
+        return shards.length;
+    }
+
+    @Override
+    public int getSize() {
+        int size = 0;
+        for (MPSCQueueBuffer<T> shard: shards)
+            size += shard.getSize();
+        return size;
+    }
+
+    @Override
+    public int getCapacity() {
+        return shards.length*shards[0].getCapacity();
+    }
+
+    @Override
+    public boolean push(T t) {
+        int home = home();
+        for (int i = 0; i < shards.length; i++)
+            if (shards[(home+i) & mask].push(t))
+                return true;
+        return false;
+    }
+
+    @Override
+    public T pop() {
+        for (int i = 0; i < shards.length; i++) {
+            int index = (next+i) & mask;
+            T t = shards[index].pop();
+            if (t != null) {
+                next = (index+1) & mask;
+                return t;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public T peekHead() {
+        for (int i = 0; i < shards.length; i++) {
+            T t = shards[(next+i) & mask].peekHead();
+            if (t != null)
+                return t;
+        }
+        return null;
+    }
+
+    /** Last object pushed into the shard of the calling thread.
+     *
+     * @return
+     */
+    @Override
+    public T peekTail() {
+        return shards[home()].peekTail();
+    }
+
+    @Override
+    public int pushAll(Collection<? extends T> c, Collection<? super T> rejected) {
+        int count = 0;
+        for (T t: c) {
+            if (push(t))
+                count++;
+            else if (rejected != null)
+                rejected.add(t);
+            else
+                break;
+        }
+        return count;
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> c, int max) {
+        int count = 0;
+        T t;
+        while (count < max && (t = pop()) != null) {
+            c.add(t);
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.quota;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/** Quota store in a directory, shared by the processes of a machine.
+ * <p>
+ * Every key is a small file with the period and the units consumed, read and
+ * written under an exclusive file lock. It stands in for a real distributed
+ * store when testing several nodes on one machine.
+ *
+ * @author rpablos
+ */
+public class FileQuotaStore implements QuotaStore {
+    final File directory;
+
+    public FileQuotaStore(File directory) {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IllegalArgumentException("Cannot create directory "+directory);
+        this.directory = directory;
+    }
+
+    File file(String key) {
+        StringBuilder name = new StringBuilder();
+        for (char c: key.toCharArray()) {
+            if (Character.isLetterOrDigit(c) || c == '-' || c == '_')
+                name.append(c);
+            else
+                name.append('%').append(Integer.toHexString(c));
+        }
+        return new File(directory, name.append(".quota").toString());
+    }
+
+    /** Reads and updates the account of key under the file lock.
+     *
+     * @param key
+     * @param period
+     * @param delta units to add, it can be negative
+     * @param quota upper limit of the consumed units
+     * @return units actually added
+     */
+    private synchronized int update(String key, long period, int delta, int quota) {
+        try (RandomAccessFile raf = new RandomAccessFile(file(key), "rw");
+             FileChannel channel = raf.getChannel()) {
+            FileLock lock = channel.lock();
+            try {
+                return update(channel, period, delta, quota);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot update quota file of "+key, ex);
+        }
+    }
+
+    private int update(FileChannel channel, long period, int delta, int quota) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        long storedPeriod = Long.MIN_VALUE;
+        int consumed = 0;
+        if (channel.size() >= 16) {
+            channel.read(buffer, 0);
+            buffer.flip();
+            storedPeriod = buffer.getLong();
+            consumed = (int) buffer.getLong();
+        }
+        if (period > storedPeriod) {
+            storedPeriod = period;
+            consumed = 0;
+        } else if (period < storedPeriod)
+            return 0;
+        int applied;
+        if (delta >= 0)
+            applied = Math.max(0, Math.min(delta, quota-consumed));
+        else
+            applied = -Math.min(-delta, consumed);
+        if (applied != 0 || channel.size() < 16) {
+            buffer.clear();
+            buffer.putLong(storedPeriod).putLong(consumed+applied).flip();
+            channel.write(buffer, 0);
+        }
+        return applied;
+    }
+
+    @Override
+    public int lease(String key, int units, int quota, long period) {
+        return update(key, period, units, quota);
+    }
+
+    @Override
+    public void release(String key, int units, long period) {
+        update(key, period, -units, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public synchronized int getConsumed(String key, long period) {
+        try (RandomAccessFile raf = new RandomAccessFile(file(key), "rw");
+             FileChannel channel = raf.getChannel()) {
+            FileLock lock = channel.lock();
+            try {
+                if (channel.size() < 16)
+                    return 0;
+                ByteBuffer buffer = ByteBuffer.allocate(16);
+                channel.read(buffer, 0);
+                buffer.flip();
+                return (buffer.getLong() == period)?(int) buffer.getLong():0;
+            } finally {
+                lock.release();
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("Cannot read quota file of "+key, ex);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.quota;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/** Quota store shared by the dispatchers of one JVM.
+ *
+ * @author rpablos
+ */
+public class InMemoryQuotaStore implements QuotaStore {
+    final ConcurrentMap<String, Account> accounts = new ConcurrentHashMap<>();
+
+    private Account account(String key) {
+        Account account = accounts.get(key);
+        if (account == null) {
+            Account newAccount = new Account();
+            account = accounts.putIfAbsent(key, newAccount);
+            if (account == null)
+                account = newAccount;
+        }
+        return account;
+    }
+
+    @Override
+    public int lease(String key, int units, int quota, long period) {
+        Account account = account(key);
+        synchronized (account) {
+            account.renew(period);
+            if (period < account.period)
+                return 0; // late request of an old period
+            int granted = Math.max(0, Math.min(units, quota-account.consumed));
+            account.consumed += granted;
+            return granted;
+        }
+    }
+
+    @Override
+    public void release(String key, int units, long period) {
+        Account account = account(key);
+        synchronized (account) {
+            if (account.period == period)
+                account.consumed = Math.max(0, account.consumed-units);
+        }
+    }
+
+    @Override
+    public int getConsumed(String key, long period) {
+        Account account = account(key);
+        synchronized (account) {
+            return (account.period == period)?account.consumed:0;
+        }
+    }
+
+    static class Account {
+        long period = Long.MIN_VALUE;
+        int consumed = 0;
+
+        void renew(long period) {
+            if (period > this.period) {
+                this.period = period;
+                consumed = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.quota;
+
+/** Shared account of the units consumed from a quota by several nodes.
+ * <p>
+ * Every period of the quota is identified by a number that all the nodes compute
+ * the same way. The consumption of a key starts again from zero the first time a
+ * newer period is seen. Implementations must be atomic across all the nodes
+ * sharing the store.
+ *
+ * @author rpablos
+ */
+public interface QuotaStore {
+    /** Leases up to units from the quota of key in the period.
+     *
+     * @param key
+     * @param units units wanted
+     * @param quota total units of the key in a period
+     * @param period number of the period
+     * @return units granted, zero if the quota is exhausted
+     * @throws IllegalStateException if the store cannot be reached. The
+     * dispatcher takes it as a denied lease.
+     */
+    public int lease(String key, int units, int quota, long period);
+    /** Returns units leased and not consumed.
+     *
+     * @param key
+     * @param units
+     * @param period number of the period the units were leased in
+     */
+    public void release(String key, int units, long period);
+    /** Units leased in the period, by all the nodes.
+     *
+     * @param key
+     * @param period
+     * @return
+     */
+    public int getConsumed(String key, long period);
+}
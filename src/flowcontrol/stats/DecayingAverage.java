@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.stats;
+
+/** Average whose samples lose weight with time, not with the number of samples.
+ * <p>
+ * The weight of a sample is exp(-age/tau), so bursts of samples do not flush
+ * the history faster than sparse ones. Timestamps are in any unit, as long as
+ * tau is in the same one, and must not go backwards.
+ *
+ * @author rpablos
+ */
+public class DecayingAverage {
+    final double tau;
+    double weightedSum = 0, weight = 0;
+    long lastTimestamp;
+    boolean empty = true;
+
+    /** Decaying average.
+     *
+     * @param tau time for the weight of a sample to decay by e, in the unit of the timestamps
+     */
+    public DecayingAverage(double tau) {
+        if (tau <= 0)
+            throw new IllegalArgumentException("Tau must be greater than zero");
+        this.tau = tau;
+    }
+
+    /** Decaying average with the given half life.
+     *
+     * @param halfLife time for the weight of a sample to halve, in the unit of the timestamps
+     * @return
+     */
+    public static DecayingAverage ofHalfLife(double halfLife) {
+        return new DecayingAverage(halfLife/Math.log(2));
+    }
+
+    public void pushValue(double value, long timestamp) {
+        decay(timestamp);
+        weightedSum += value;
+        weight += 1;
+    }
+
+    private void decay(long timestamp) {
+        if (!empty && timestamp > lastTimestamp) {
+            double factor = Math.exp(-(timestamp-lastTimestamp)/tau);
+            weightedSum *= factor;
+            weight *= factor;
+        }
+        if (empty || timestamp > lastTimestamp)
+            lastTimestamp = timestamp;
+        empty = false;
+    }
+
+    /** Average of the samples pushed.
+     *
+     * @return NaN if there are none
+     */
+    public double getAverage() {
+        return (weight > 0)?weightedSum/weight:Double.NaN;
+    }
+
+    /** Sum of the weights of the samples at the given time. It can be taken
+     * as a rate of samples per tau.
+     *
+     * @param timestamp
+     * @return
+     */
+    public double getWeight(long timestamp) {
+        if (empty || timestamp <= lastTimestamp)
+            return weight;
+        return weight*Math.exp(-(timestamp-lastTimestamp)/tau);
+    }
+}
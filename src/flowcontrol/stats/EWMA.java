@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.stats;
+
+/** Exponentially weighted moving average.
+ * <p>
+ * Every sample moves the average by alpha of its difference with it, so the
+ * weight of a sample decays geometrically with the number of samples after it.
+ *
+ * @author rpablos
+ */
+public class EWMA {
+    final double alpha;
+    double average;
+
+    public EWMA(double alpha) {
+        this(alpha, 0);
+    }
+
+    /** EWMA.
+     *
+     * @param alpha weight of a new sample, in (0,1]
+     * @param initialValue
+     */
+    public EWMA(double alpha, double initialValue) {
+        if (alpha <= 0 || alpha > 1)
+            throw new IllegalArgumentException("Alpha must be in (0,1]");
+        this.alpha = alpha;
+        average = initialValue;
+    }
+
+    /** EWMA whose weights add up like the ones of a window of size samples,
+     * that is, with alpha = 2/(size+1).
+     *
+     * @param size
+     * @param initialValue
+     * @return
+     */
+    public static EWMA ofWindow(int size, double initialValue) {
+        if (size < 1)
+            throw new IllegalArgumentException("Size must be greater than zero");
+        return new EWMA(2.0/(size+1), initialValue);
+    }
+
+    public void pushValue(double value) {
+        average += alpha*(value-average);
+    }
+    public double getAlpha() {
+        return alpha;
+    }
+    public double getAverage() {
+        return average;
+    }
+}
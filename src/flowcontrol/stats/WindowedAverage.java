@@ -0,0 +1,79 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.stats;
+
+import java.util.Arrays;
+
+/** Average of the last samples, with a running sum.
+ * <p>
+ * Both {@link #pushValue(long)} and {@link #getAverage()} are O(1), amortized for
+ * the former, whatever the size of the window. The sum is recomputed from the
+ * samples every time the window wraps around, so it does not drift, and an
+ * update lost by unsynchronized callers does not last beyond one window.
+ *
+ * @author rpablos
+ */
+public class WindowedAverage {
+    final long[] values;
+    int pos = 0;
+    long sum;
+    long offset = 0; // added to every stored sample
+
+    /** Window of size samples, all of them initialValue at the beginning.
+     *
+     * @param size
+     * @param initialValue
+     */
+    public WindowedAverage(int size, long initialValue) {
+        if (size < 1)
+            throw new IllegalArgumentException("Size must be greater than zero");
+        values = new long[size];
+        Arrays.fill(values,initialValue);
+        sum = initialValue*size;
+    }
+
+    public void pushValue(long value) {
+        value -= offset;
+        sum += value-values[pos];
+        values[pos] = value;
+        pos = (pos+1) % values.length;
+        if (pos == 0)
+            resync();
+    }
+    private void resync() {
+        long s = 0;
+        for (long v: values)
+            s += v;
+        sum = s;
+    }
+    /** Adds delta to all the samples of the window, in O(1).
+     *
+     * @param delta
+     */
+    public void shift(long delta) {
+        offset += delta;
+    }
+    public int getSize() {
+        return values.length;
+    }
+    public long getSum() {
+        return sum+offset*values.length;
+    }
+    public double getAverage() {
+        return ((double)sum)/values.length+offset;
+    }
+}
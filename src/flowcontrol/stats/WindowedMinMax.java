@@ -0,0 +1,101 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.stats;
+
+/** Minimum and maximum of the last samples.
+ * <p>
+ * It keeps two monotonic deques of candidates, so pushing is amortized O(1)
+ * and the queries are O(1).
+ *
+ * @author rpablos
+ */
+public class WindowedMinMax {
+    final int size;
+    long count = 0; // samples pushed
+    final Deque min, max;
+
+    public WindowedMinMax(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("Size must be greater than zero");
+        this.size = size;
+        min = new Deque(size);
+        max = new Deque(size);
+    }
+
+    public void pushValue(long value) {
+        long expired = count-size;
+        min.push(value, count, expired, false);
+        max.push(value, count, expired, true);
+        count++;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /** Samples in the window.
+     *
+     * @return
+     */
+    public int getCount() {
+        return (int) Math.min(count, size);
+    }
+
+    /** Minimum of the window.
+     *
+     * @return Long.MAX_VALUE if no sample has been pushed
+     */
+    public long getMin() {
+        return (min.length > 0)?min.values[min.head]:Long.MAX_VALUE;
+    }
+
+    /** Maximum of the window.
+     *
+     * @return Long.MIN_VALUE if no sample has been pushed
+     */
+    public long getMax() {
+        return (max.length > 0)?max.values[max.head]:Long.MIN_VALUE;
+    }
+
+    static class Deque {
+        final long[] values, indexes;
+        int head = 0, length = 0;
+
+        Deque(int size) {
+            values = new long[size];
+            indexes = new long[size];
+        }
+
+        void push(long value, long index, long expired, boolean maximum) {
+            if (length > 0 && indexes[head] <= expired) {
+                head = (head+1) % values.length;
+                length--;
+            }
+            // the candidates dominated by the new value will never be the answer
+            while (length > 0) {
+                long last = values[(head+length-1) % values.length];
+                if (maximum?(last > value):(last < value))
+                    break;
+                length--;
+            }
+            int tail = (head+length) % values.length;
+            values[tail] = value;
+            indexes[tail] = index;
+            length++;
+        }
+    }
+}
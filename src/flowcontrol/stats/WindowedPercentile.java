@@ -0,0 +1,110 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.stats;
+
+/** Percentiles of the last samples.
+ * <p>
+ * Samples are counted in a log-linear histogram with 8 sub-buckets per power
+ * of two, which is updated with the sample that enters the window and the one
+ * that leaves it. Pushing is O(1), and a query walks the fixed number of buckets,
+ * so its cost does not depend on the window either. The estimate is within 6.25%
+ * of the true value. Negative samples count as zero.
+ *
+ * @author rpablos
+ */
+public class WindowedPercentile {
+    static final int SUB_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    static final int BUCKETS = SUB_BUCKETS+(63-SUB_BITS)*SUB_BUCKETS;
+    final long[] values;
+    final int[] histogram = new int[BUCKETS];
+    int pos = 0;
+    int count = 0;
+
+    public WindowedPercentile(int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("Size must be greater than zero");
+        values = new long[size];
+    }
+
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) Math.max(0, value);
+        int exponent = 63-Long.numberOfLeadingZeros(value);
+        int mantissa = (int) (value >>> (exponent-SUB_BITS)) & (SUB_BUCKETS-1);
+        return SUB_BUCKETS+(exponent-SUB_BITS)*SUB_BUCKETS+mantissa;
+    }
+
+    /** Middle value of a bucket.
+     *
+     * @param bucket
+     * @return
+     */
+    static long value(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = (bucket-SUB_BUCKETS)/SUB_BUCKETS;
+        long lower = ((long) (SUB_BUCKETS+(bucket % SUB_BUCKETS))) << shift;
+        return lower+((1L << shift) >> 1);
+    }
+
+    public void pushValue(long value) {
+        if (count == values.length)
+            histogram[bucket(values[pos])]--;
+        else
+            count++;
+        values[pos] = value;
+        histogram[bucket(value)]++;
+        pos = (pos+1) % values.length;
+    }
+
+    public int getSize() {
+        return values.length;
+    }
+
+    /** Samples in the window.
+     *
+     * @return
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /** Value below which the given fraction of the samples of the window are.
+     *
+     * @param percentile in [0,100]
+     * @return 0 if no sample has been pushed
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Percentile must be in [0,100]");
+        if (count == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(count*percentile/100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= rank)
+                return value(i);
+        }
+        return value(BUCKETS-1);
+    }
+
+    public long getMedian() {
+        return getPercentile(50);
+    }
+}
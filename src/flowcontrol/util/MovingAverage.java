@@ -16,15 +16,15 @@
 
 package flowcontrol.util;
 
-import java.util.Arrays;
+import flowcontrol.stats.WindowedAverage;
 
 /**
  *
  * @author rpablos
+ * @deprecated replaced by {@link WindowedAverage}, which it extends
  */
-public class MovingAverage {
-    long[] values;
-    int pos = 0;
+@Deprecated
+public class MovingAverage extends WindowedAverage {
     public MovingAverage() {
         this(0);
     }
@@ -36,31 +36,6 @@ public class MovingAverage {
 
     
     public MovingAverage(int size, long initialValue) {
-        if (size < 1)
-            throw new IllegalArgumentException("Size must be greater than zero");
-        values = new long[size];
-        Arrays.fill(values,initialValue);
-    }
-    
-    public void pushValue(long value) {
-        values[pos] = value;
-        pos = (pos+1) % values.length;
-    }
-    public int getSize() {
-        return values.length;
-    }
-//    public long getAverage() {
-//        double result = 0;
-//        for (int i = 0; i < values.length; i++) {
-//            result = (result*((i)/(i+1.0))+values[i]/(i+1.0));
-//        }
-//        return (long)result;
-//    }
-    public double getAverage() {
-        long result = 0;
-        for (int i = 0; i < values.length; i++) {
-            result += values[i]; 
-        }
-        return ((double)result)/values.length;
+        super(size, initialValue);
     }
 }
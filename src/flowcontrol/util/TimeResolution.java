@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.util;
+
+import java.util.concurrent.locks.LockSupport;
+
+/** Time base used by the pacing dispatchers.
+ * <p>
+ * {@link #MILLISECONDS} is the classic mode, based on {@code System.currentTimeMillis()}
+ * and {@code Thread.sleep()}. It is fine up to some hundreds of objects per second.
+ * {@link #NANOSECONDS} uses {@code System.nanoTime()} and parks the thread for
+ * sub-millisecond intervals, so rates of 10k-1M objects per second can be held.
+ *
+ * @author rpablos
+ */
+public enum TimeResolution {
+    MILLISECONDS(1000L) {
+        @Override
+        public long now() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public void sleep(long units) throws InterruptedException {
+            if (units > 0)
+                Thread.sleep(units);
+        }
+    },
+    NANOSECONDS(1000000000L) {
+        @Override
+        public long now() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleep(long units) throws InterruptedException {
+            if (units <= 0)
+                return;
+            long deadline = System.nanoTime()+units;
+            long remaining = units;
+            // park for the coarse part, then yield until the deadline so that
+            // the park granularity of the OS does not become jitter
+            while (remaining > SPIN_THRESHOLD) {
+                LockSupport.parkNanos(remaining-SPIN_THRESHOLD);
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                remaining = deadline-System.nanoTime();
+            }
+            while (deadline-System.nanoTime() > 0) {
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                Thread.yield();
+            }
+        }
+    };
+    
+    static final long SPIN_THRESHOLD = 50000L; // 50 us
+    
+    final long unitsPerSecond;
+
+    private TimeResolution(long unitsPerSecond) {
+        this.unitsPerSecond = unitsPerSecond;
+    }
+    
+    /** Current timestamp, in units of this resolution.
+     *
+     * @return
+     */
+    public abstract long now();
+    
+    /** Sleeps the given amount of units of this resolution.
+     *
+     * @param units
+     * @throws InterruptedException
+     */
+    public abstract void sleep(long units) throws InterruptedException;
+
+    public long getUnitsPerSecond() {
+        return unitsPerSecond;
+    }
+    
+    public long fromMillis(long millis) {
+        return millis*(unitsPerSecond/1000L);
+    }
+    
+    public long toMillis(long units) {
+        return units/(unitsPerSecond/1000L);
+    }
+}
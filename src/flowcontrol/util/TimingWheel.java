@@ -0,0 +1,271 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.util;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/** Hashed timing wheel for periodic tasks.
+ * <p>
+ * A replacement of {@link java.util.Timer} for many periodic tasks: scheduling
+ * and cancelling are O(1) and every tick only visits one bucket of the wheel.
+ * Tasks whose deadline is further than one turn of the wheel stay in their bucket
+ * counting the remaining rounds. Periodic tasks are rescheduled at fixed rate from
+ * their previous deadline, so they do not drift. A task with a period shorter than
+ * the tick, or late because the wheel thread lagged, runs the executions already
+ * due one after another, like {@link java.util.Timer#scheduleAtFixedRate}.
+ * <p>
+ * If an {@link Executor} is given, expired tasks are run in it instead of in the
+ * wheel thread, so slow tasks do not delay the others. Exceptions thrown by a task
+ * go to the uncaught exception handler of the wheel thread, which keeps running.
+ *
+ * @author rpablos
+ */
+public class TimingWheel {
+    final String name;
+    final long tickNanos;
+    final Bucket[] wheel;
+    final int mask;
+    final Executor executor;
+    final ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    long startTime;
+    long tick = 0; // only accessed by the wheel thread
+    final List<Timeout> rescheduled = new ArrayList<>(); // periodic tasks expired in this tick
+    Thread thread = null;
+    volatile boolean stopped = false;
+
+    public TimingWheel(String name) {
+        this(name, 10, TimeUnit.MILLISECONDS, 512, null);
+    }
+
+    /** Timing wheel.
+     *
+     * @param name name of the wheel thread
+     * @param tickDuration resolution of the wheel
+     * @param unit unit of tickDuration
+     * @param wheelSize number of buckets, rounded up to a power of two
+     * @param executor where tasks are run. If null, they are run in the wheel thread.
+     */
+    public TimingWheel(String name, long tickDuration, TimeUnit unit, int wheelSize, Executor executor) {
+        if (tickDuration <= 0)
+            throw new IllegalArgumentException("Tick duration must be greater than zero");
+        if (wheelSize < 1 || wheelSize > (1 << 30))
+            throw new IllegalArgumentException("Wheel size must be between 1 and 2^30");
+        this.name = name;
+        this.tickNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize)
+            size <<= 1;
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++)
+            wheel[i] = new Bucket();
+        mask = size-1;
+        this.executor = executor;
+    }
+
+    /** Schedules task for repeated execution at fixed rate.
+     *
+     * @param task
+     * @param firstTime
+     * @param period in ms
+     * @return handle for cancelling the task
+     */
+    public Timeout schedule(Runnable task, Date firstTime, long period) {
+        if (period <= 0)
+            throw new IllegalArgumentException("Period must be greater than zero");
+        long delay = Math.max(0, firstTime.getTime()-System.currentTimeMillis());
+        return schedule(task, delay, period);
+    }
+
+    /** Schedules task for repeated execution at fixed rate.
+     *
+     * @param task
+     * @param delay in ms. 
+     * @param period in ms. Zero means one execution only
+     * @return handle for cancelling the task
+     */
+    public Timeout schedule(Runnable task, long delay, long period) {
+        if (stopped)
+            throw new IllegalStateException("Timing wheel stopped");
+        start();
+        Timeout timeout = new Timeout(task, System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(delay), 
+                TimeUnit.MILLISECONDS.toNanos(period));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    private synchronized void start() {
+        if (thread == null) {
+            startTime = System.nanoTime();
+            thread = new Thread(new Worker(), name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /** Stops the wheel thread. Pending tasks are not run.
+     *
+     */
+    public synchronized void stop() {
+        stopped = true;
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    private void place(Timeout timeout) {
+        long ticks = (timeout.deadline-startTime+tickNanos-1)/tickNanos;
+        long target = Math.max(ticks, tick);
+        timeout.rounds = (target-tick)/wheel.length;
+        wheel[(int) (target & mask)].add(timeout);
+    }
+
+    /** Runs an expired task, and the next executions already due if it is periodic.
+     * Periodic tasks are placed again after the pass over the bucket, so they are
+     * not appended to the bucket being visited.
+     *
+     * @param timeout
+     * @param now
+     */
+    private void expire(final Timeout timeout, long now) {
+        run(timeout);
+        if (timeout.period > 0) {
+            timeout.deadline += timeout.period;
+            while (timeout.deadline <= now && !timeout.cancelled) {
+                run(timeout);
+                timeout.deadline += timeout.period;
+            }
+            if (!timeout.cancelled)
+                rescheduled.add(timeout);
+        }
+    }
+
+    private void run(Timeout timeout) {
+        try {
+            if (executor == null)
+                timeout.run();
+            else
+                executor.execute(timeout);
+        } catch (RuntimeException ex) {
+            // a failing task must not stop the wheel, nor its own next runs
+            Thread current = Thread.currentThread();
+            current.getUncaughtExceptionHandler().uncaughtException(current, ex);
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                while (!stopped) {
+                    long deadline = startTime+(tick+1)*tickNanos;
+                    long now;
+                    while ((now = System.nanoTime()) < deadline)
+                        TimeUnit.NANOSECONDS.sleep(deadline-now);
+                    Timeout timeout;
+                    while ((timeout = pending.poll()) != null)
+                        if (!timeout.cancelled)
+                            place(timeout);
+                    Bucket bucket = wheel[(int) (tick & mask)];
+                    timeout = bucket.head;
+                    while (timeout != null) {
+                        Timeout next = timeout.next;
+                        if (timeout.cancelled)
+                            bucket.remove(timeout);
+                        else if (timeout.rounds > 0)
+                            timeout.rounds--;
+                        else {
+                            bucket.remove(timeout);
+                            expire(timeout, now);
+                        }
+                        timeout = next;
+                    }
+                    tick++;
+                    // placed once the visit of the bucket is over, so whole turns count right
+                    for (Timeout periodic: rescheduled)
+                        place(periodic);
+                    rescheduled.clear();
+                }
+            } catch (InterruptedException ex) {}
+        }
+    }
+
+    /** Handle of a scheduled task.
+     *
+     */
+    public static class Timeout implements Runnable {
+        final Runnable task;
+        final long period;
+        long deadline;
+        long rounds;
+        volatile boolean cancelled = false;
+        Timeout next, prev;
+
+        Timeout(Runnable task, long deadline, long period) {
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        /** Cancels the task. It is removed from the wheel in the next visit to its bucket.
+         *
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void run() {
+            if (!cancelled)
+                task.run();
+        }
+    }
+
+    private static class Bucket {
+        Timeout head, tail;
+
+        void add(Timeout timeout) {
+            timeout.next = null;
+            timeout.prev = tail;
+            if (tail == null)
+                head = timeout;
+            else
+                tail.next = timeout;
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev == null)
+                head = timeout.next;
+            else
+                timeout.prev.next = timeout.next;
+            if (timeout.next == null)
+                tail = timeout.prev;
+            else
+                timeout.next.prev = timeout.prev;
+            timeout.next = timeout.prev = null;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.util;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/** Access to virtual threads when the runtime has them.
+ * <p>
+ * The library is built for Java 7, so the factory is looked up by reflection.
+ * Pass it to {@link flowcontrol.connector.ConnectorManager} or
+ * {@link flowcontrol.connector.ScheduledConnectorManager}, or use it for the
+ * consumer threads: the dispatchers wait on locks and conditions and sleep with
+ * parking, so a blocked virtual thread releases its carrier thread.
+ *
+ * @author rpablos
+ */
+public final class VirtualThreads {
+    private static final ThreadFactory factory = lookup();
+
+    private VirtualThreads() {
+    }
+
+    private static ThreadFactory lookup() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    public static boolean isAvailable() {
+        return factory != null;
+    }
+
+    /** Factory of virtual threads.
+     *
+     * @return null if the runtime does not have them
+     */
+    public static ThreadFactory factory() {
+        return factory;
+    }
+
+    /** Factory of virtual threads, or of platform threads if the runtime does
+     * not have them.
+     *
+     * @return
+     */
+    public static ThreadFactory factoryOrDefault() {
+        return (factory != null)?factory:Executors.defaultThreadFactory();
+    }
+}
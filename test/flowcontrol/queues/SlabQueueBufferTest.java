@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.queues;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author rpablos
+ */
+public class SlabQueueBufferTest {
+
+    static ByteBuffer payload(int length, int value) {
+        ByteBuffer result = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; i++)
+            result.put(i, (byte) (value+i));
+        return result;
+    }
+
+    @Test
+    public void testPushIntoEmptySlabAfterWrap() {
+        SlabQueueBuffer queue = new SlabQueueBuffer(100, 10);
+        assertTrue(queue.push(payload(36, 0)));
+        assertEquals(payload(36, 0), queue.pop());
+        assertNull(queue.pop());
+        // 70 bytes do not fit after the first record, but the slab is empty
+        assertTrue(queue.push(payload(66, 1)));
+        assertEquals(payload(66, 1), queue.pop());
+    }
+
+    @Test
+    public void testRecordsOfSlabSize() {
+        SlabQueueBuffer queue = new SlabQueueBuffer(100, 10);
+        assertFalse(queue.push(payload(97, 0)));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(queue.push(payload(96, i)));
+            assertFalse(queue.push(payload(1, i)));
+            assertEquals(payload(96, i), queue.pop());
+            assertNull(queue.pop());
+            assertTrue(queue.push(payload(10+i, i)));
+            assertEquals(payload(10+i, i), queue.pop());
+            assertNull(queue.pop());
+        }
+    }
+
+    @Test
+    public void testWrapAround() {
+        SlabQueueBuffer queue = new SlabQueueBuffer(128, 1000);
+        int pushed = 0, popped = 0;
+        for (int round = 0; round < 200; round++) {
+            // lengths that leave 0 to 3 bytes, or a wrap mark, at the end of the slab
+            while (queue.push(payload(1+pushed%29, pushed)))
+                pushed++;
+            assertTrue(queue.getUsedBytes() <= 128);
+            int n = 1+round%3;
+            for (int i = 0; i < n && queue.getSize() > 0; i++, popped++) {
+                assertEquals(payload(1+popped%29, popped), queue.peekHead());
+                assertEquals(payload(1+popped%29, popped), queue.pop());
+            }
+        }
+        while (queue.getSize() > 0) {
+            assertEquals(payload(1+popped%29, popped), queue.pop());
+            popped++;
+        }
+        assertEquals(pushed, popped);
+    }
+
+    @Test
+    public void testCapacity() {
+        SlabQueueBuffer queue = new SlabQueueBuffer(1024, 2);
+        assertTrue(queue.push(payload(1, 0)));
+        assertTrue(queue.push(payload(2, 1)));
+        assertFalse(queue.push(payload(3, 2)));
+        assertEquals(payload(2, 1), queue.peekTail());
+        assertEquals(payload(1, 0), queue.pop());
+        assertEquals(payload(2, 1), queue.pop());
+        assertNull(queue.pop());
+    }
+}
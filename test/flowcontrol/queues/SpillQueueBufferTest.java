@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.queues;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author rpablos
+ */
+public class SpillQueueBufferTest {
+    static final Serializer<byte[]> BYTES = new Serializer<byte[]>() {
+        @Override
+        public byte[] serialize(byte[] t) {
+            return t;
+        }
+
+        @Override
+        public byte[] deserialize(ByteBuffer buffer) {
+            byte[] result = new byte[buffer.remaining()];
+            buffer.get(result);
+            return result;
+        }
+    };
+    File directory;
+    SpillQueueBuffer<byte[]> queue;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("spill").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        if (queue != null)
+            queue.close();
+        directory.delete();
+    }
+
+    static byte[] record(int length, int value) {
+        byte[] result = new byte[length];
+        Arrays.fill(result, (byte) value);
+        return result;
+    }
+
+    @Test
+    public void testRollOverWithFewBytesLeft() {
+        for (int left = 1; left <= 3; left++) {
+            // two records of 4+7 bytes leave left bytes, too few for another length
+            queue = new SpillQueueBuffer<>(1, BYTES, directory, 22+left, 4);
+            assertTrue(queue.push(record(1, 0)));
+            for (int i = 1; i <= 3; i++)
+                assertTrue(queue.push(record(7, i)));
+            assertEquals(3, queue.getSpilled());
+            assertArrayEquals(record(1, 0), queue.pop());
+            for (int i = 1; i <= 3; i++)
+                assertArrayEquals(record(7, i), queue.pop());
+            assertNull(queue.pop());
+            assertEquals(0, queue.getSize());
+            queue.close();
+            queue = null;
+        }
+    }
+
+    @Test
+    public void testOrderAcrossSegments() {
+        queue = new SpillQueueBuffer<>(4, BYTES, directory, 64, 64);
+        int pushed = 0, popped = 0;
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 7; i++, pushed++)
+                assertTrue(queue.push(record(1+pushed%13, pushed)));
+            for (int i = 0; i < 5; i++, popped++)
+                assertArrayEquals(record(1+popped%13, popped), queue.pop());
+        }
+        while (popped < pushed) {
+            assertArrayEquals(record(1+popped%13, popped), queue.pop());
+            popped++;
+        }
+        assertNull(queue.pop());
+    }
+
+    @Test
+    public void testDropsWhenSegmentsAreFull() {
+        queue = new SpillQueueBuffer<>(1, BYTES, directory, 16, 1);
+        assertTrue(queue.push(record(1, 0)));
+        assertTrue(queue.push(record(8, 1)));
+        assertFalse(queue.push(record(8, 2)));
+        assertArrayEquals(record(1, 0), queue.pop());
+        assertArrayEquals(record(8, 1), queue.pop());
+        assertNull(queue.pop());
+    }
+
+    @Test
+    public void testDropsRecordLargerThanSegment() {
+        queue = new SpillQueueBuffer<>(1, BYTES, directory, 16, 4);
+        assertTrue(queue.push(record(9, 0)));
+        assertFalse(queue.push(record(9, 1)));
+        assertEquals(0, queue.getSpilled());
+        assertTrue(queue.push(record(8, 2)));
+        assertArrayEquals(record(9, 0), queue.pop());
+        assertArrayEquals(record(8, 2), queue.pop());
+        assertNull(queue.pop());
+    }
+}
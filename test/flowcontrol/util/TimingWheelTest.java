@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014 Ronald Pablos.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package flowcontrol.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author rpablos
+ */
+public class TimingWheelTest {
+    TimingWheel wheel;
+
+    @After
+    public void tearDown() {
+        if (wheel != null)
+            wheel.stop();
+    }
+
+    static Runnable counter(final AtomicInteger count) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                count.incrementAndGet();
+            }
+        };
+    }
+
+    @Test
+    public void periodShorterThanTickCatchesUp() throws InterruptedException {
+        wheel = new TimingWheel("test");
+        AtomicInteger count = new AtomicInteger();
+        wheel.schedule(counter(count), 0, 5);
+        Thread.sleep(500);
+        wheel.stop();
+        assertEquals(100, count.get(), 25);
+    }
+
+    @Test
+    public void periodOfWholeTurns() throws InterruptedException {
+        wheel = new TimingWheel("test", 1, TimeUnit.MILLISECONDS, 8, null);
+        AtomicInteger oneTurn = new AtomicInteger();
+        AtomicInteger twoTurns = new AtomicInteger();
+        wheel.schedule(counter(oneTurn), 0, 8);
+        wheel.schedule(counter(twoTurns), 0, 16);
+        Thread.sleep(400);
+        wheel.stop();
+        assertEquals(50, oneTurn.get(), 12);
+        assertEquals(25, twoTurns.get(), 6);
+    }
+
+    @Test
+    public void cancelledTaskStopsRunning() throws InterruptedException {
+        wheel = new TimingWheel("test");
+        AtomicInteger count = new AtomicInteger();
+        TimingWheel.Timeout timeout = wheel.schedule(counter(count), 0, 5);
+        Thread.sleep(100);
+        timeout.cancel();
+        Thread.sleep(50);
+        int runs = count.get();
+        Thread.sleep(100);
+        assertEquals(runs, count.get());
+    }
+}